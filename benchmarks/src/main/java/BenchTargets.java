@@ -0,0 +1,75 @@
+import java.math.BigInteger;
+
+import bench.Targets;
+
+/**
+ * Implements the benchmark interface on top of the application classes.
+ * Lives in the unnamed package so it can see them, including the package private ones.
+ *
+ * @author Andrew Josten
+ */
+public class BenchTargets implements Targets {
+	private final SHA3 sha3 = new SHA3();
+	private final KMAC kmac = new KMAC();
+	private final KmacFunctions kmacFunctions = new KmacFunctions();
+	private final EcurveFunctions ec = new EcurveFunctions();
+
+	public byte[] keccak(byte[] X) {
+		return sha3.Keccak(1088, 512, X, 512);
+	}
+
+	public long[] permute(long[] state) {
+		return SHA3.keccakPerms(state);
+	}
+
+	public byte[] kmacxof256(byte[] K, byte[] X, int L, String S) {
+		return kmac.KMACXOF256(K, X, L, S);
+	}
+
+	public byte[] encrypt(byte[] m, byte[] pw) {
+		return kmacFunctions.encrypt(m, pw);
+	}
+
+	public byte[] decrypt(byte[] gram, byte[] pw) {
+		return kmacFunctions.decrypt(gram, pw);
+	}
+
+	public BigInteger randomScalar() {
+		return EcurveFunctions.randomScalar();
+	}
+
+	public Object point(BigInteger k) {
+		return EcurveFunctions.G.exponentiation(k);
+	}
+
+	public Object sum(Object P, Object Q) {
+		return ((Ecurve) P).sum((Ecurve) Q);
+	}
+
+	public Object exponentiation(Object P, BigInteger k) {
+		return ((Ecurve) P).exponentiation(k);
+	}
+
+	public Object keyPair(byte[] pw) {
+		ec.KeyPair(pw);
+		return ec.getV();
+	}
+
+	public Object privateKey(byte[] pw) {
+		EcPrivateKey key = ec.deriveKey(pw);
+		key.getPublicKey();
+		return key;
+	}
+
+	public Object ecEncrypt(byte[] m, Object key) {
+		return ec.encrypt(m, ((EcPrivateKey) key).getPublicKey());
+	}
+
+	public byte[] sign(Object key, byte[] m) {
+		return ec.sigGenerator((EcPrivateKey) key, m);
+	}
+
+	public boolean verify(byte[] sig, byte[] m, Object key) {
+		return ec.verify(EcurveFunctions.splitSignature(sig), m, ((EcPrivateKey) key).getPublicKey());
+	}
+}
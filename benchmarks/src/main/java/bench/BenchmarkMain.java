@@ -0,0 +1,40 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH arguments (e.g. a benchmark regex, -p size=1024)
+ * and always attaches the gc profiler, so each result comes with its allocation rate (gc.alloc.rate.norm, B/op).
+ * Unless -bm is given, every benchmark is run twice: throughput in ops/s, then average time in ns/op.
+ *
+ * @author Andrew Josten
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if(cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers() || cmd.shouldListResultFormats()
+				|| cmd.shouldListWithParams()) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		if(Arrays.asList(args).contains("-bm")) {
+			new Runner(options(cmd).build()).run();
+			return;
+		}
+		new Runner(options(cmd).mode(Mode.Throughput).timeUnit(TimeUnit.SECONDS).build()).run();
+		new Runner(options(cmd).mode(Mode.AverageTime).timeUnit(TimeUnit.NANOSECONDS).build()).run();
+	}
+
+	private static ChainedOptionsBuilder options(CommandLineOptions cmd) {
+		return new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+	}
+}
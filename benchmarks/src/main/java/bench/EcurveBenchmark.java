@@ -0,0 +1,51 @@
+package bench;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point addition and scalar multiplication on E521
+ *
+ * @author Andrew Josten
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EcurveBenchmark {
+	private Targets t;
+	private Object P;
+	private Object Q;
+	private BigInteger k;
+
+	@Setup
+	public void setup() {
+		t = Targets.create();
+		P = t.point(t.randomScalar());
+		Q = t.point(t.randomScalar());
+		k = t.randomScalar();
+	}
+
+	@Benchmark
+	public Object sum() {
+		return t.sum(P, Q);
+	}
+
+	@Benchmark
+	public Object exponentiation() {
+		return t.exponentiation(P, k);
+	}
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Key pair generation, ECDHIES encryption, signing and verification of a 1 KB message
+ *
+ * @author Andrew Josten
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EcurveFunctionsBenchmark {
+	private Targets t;
+	private byte[] pw;
+	private byte[] m;
+	private Object key;
+	private byte[] sig;
+
+	@Setup
+	public void setup() {
+		t = Targets.create();
+		Random r = new Random(1);
+		pw = new byte[16];
+		r.nextBytes(pw);
+		m = new byte[1024];
+		r.nextBytes(m);
+		key = t.privateKey(pw);
+		sig = t.sign(key, m);
+	}
+
+	@Benchmark
+	public Object keyPair() {
+		return t.keyPair(pw);
+	}
+
+	@Benchmark
+	public Object encrypt() {
+		return t.ecEncrypt(m, key);
+	}
+
+	@Benchmark
+	public byte[] sign() {
+		return t.sign(key, m);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return t.verify(sig, m, key);
+	}
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SHA3.Keccak on one rate block and the bare keccak-f[1600] permutation
+ *
+ * @author Andrew Josten
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeccakBenchmark {
+	private Targets t;
+	private byte[] block;
+	private long[] state;
+
+	@Setup
+	public void setup() {
+		t = Targets.create();
+		Random r = new Random(1);
+		block = new byte[136];
+		r.nextBytes(block);
+		state = new long[25];
+		for(int i = 0; i < 25; i++) {
+			state[i] = r.nextLong();
+		}
+	}
+
+	@Benchmark
+	public byte[] keccak() {
+		return t.keccak(block);
+	}
+
+	@Benchmark
+	public long[] permutation() {
+		return t.permute(state);
+	}
+}
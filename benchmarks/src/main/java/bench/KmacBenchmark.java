@@ -0,0 +1,63 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KMAC.KMACXOF256 and the symmetric KmacFunctions.encrypt/decrypt over message sizes from 32 B to 64 MB
+ *
+ * @author Andrew Josten
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class KmacBenchmark {
+	@Param({"32", "1024", "65536", "1048576", "67108864"})
+	public int size;
+
+	private Targets t;
+	private byte[] key;
+	private byte[] m;
+	private byte[] gram;
+
+	@Setup
+	public void setup() {
+		t = Targets.create();
+		Random r = new Random(1);
+		key = new byte[32];
+		r.nextBytes(key);
+		m = new byte[size];
+		r.nextBytes(m);
+		gram = t.encrypt(m, key);
+	}
+
+	@Benchmark
+	public byte[] kmacxof256() {
+		return t.kmacxof256(key, m, 512, "D");
+	}
+
+	@Benchmark
+	public byte[] encrypt() {
+		return t.encrypt(m, key);
+	}
+
+	@Benchmark
+	public byte[] decrypt() {
+		return t.decrypt(gram, key);
+	}
+}
@@ -0,0 +1,67 @@
+package bench;
+
+import java.math.BigInteger;
+
+/**
+ * The operations being measured. The application classes live in the unnamed package,
+ * which code in a named package cannot import, and JMH refuses benchmarks in the unnamed package,
+ * so the benchmarks reach them through this interface, implemented by BenchTargets.
+ * Points and keys are passed around as Object.
+ *
+ * @author Andrew Josten
+ */
+public interface Targets {
+	/** SHA3.Keccak(1088, 512, X, 512) */
+	byte[] keccak(byte[] X);
+
+	/** SHA3.keccakPerms on a 25 lane state */
+	long[] permute(long[] state);
+
+	/** KMAC.KMACXOF256 */
+	byte[] kmacxof256(byte[] K, byte[] X, int L, String S);
+
+	/** KmacFunctions.encrypt */
+	byte[] encrypt(byte[] m, byte[] pw);
+
+	/** KmacFunctions.decrypt */
+	byte[] decrypt(byte[] gram, byte[] pw);
+
+	/** A fresh scalar, as used for k in encrypt and sign */
+	BigInteger randomScalar();
+
+	/** k*G as an Ecurve */
+	Object point(BigInteger k);
+
+	/** Ecurve.sum */
+	Object sum(Object P, Object Q);
+
+	/** Ecurve.exponentiation */
+	Object exponentiation(Object P, BigInteger k);
+
+	/** EcurveFunctions.KeyPair, returning V */
+	Object keyPair(byte[] pw);
+
+	/** The EcPrivateKey for pw, with its public key already computed */
+	Object privateKey(byte[] pw);
+
+	/** EcurveFunctions.encrypt(m, V) for the key's public key */
+	Object ecEncrypt(byte[] m, Object key);
+
+	/** EcurveFunctions.sigGenerator */
+	byte[] sign(Object key, byte[] m);
+
+	/** EcurveFunctions.verify against the key's public key */
+	boolean verify(byte[] sig, byte[] m, Object key);
+
+	/**
+	 * A new instance of the implementation, one per benchmark thread
+	 */
+	static Targets create() {
+		try {
+			return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException e) {
+			throw new IllegalStateException("BenchTargets is missing from the class path", e);
+		}
+	}
+}
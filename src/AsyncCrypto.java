@@ -0,0 +1,122 @@
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Asynchronous front end for KmacFunctions and EcurveFunctions.
+ * Every operation returns a CompletableFuture run on the given executor. Where an operation
+ * needs two independent scalar multiplications (W = k*V and Z = k*G in encrypt, z*G and h*V
+ * in verify) they are forked as separate tasks and joined, so one request uses two cores.
+ *
+ * @author Andrew Josten
+ */
+public class AsyncCrypto {
+	private final Executor executor;
+	private final KmacFunctions kmac;
+	private final EcurveFunctions ec;
+
+	/**
+	 * Uses virtual threads when the JVM has them, otherwise the common ForkJoinPool
+	 */
+	public AsyncCrypto() {
+		this(defaultExecutor());
+	}
+
+	public AsyncCrypto(Executor executor) {
+		this(executor, new EcurveFunctions());
+	}
+
+	/**
+	 * @param executor runs every task and sub task
+	 * @param ec the engine to use, e.g. one with an EphemeralPool set
+	 */
+	public AsyncCrypto(Executor executor, EcurveFunctions ec) {
+		this.executor = executor;
+		this.kmac = new KmacFunctions();
+		this.ec = ec;
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() when running on Java 21 or later
+	 * (looked up reflectively so this still builds for older targets), else ForkJoinPool.commonPool()
+	 */
+	public static Executor defaultExecutor() {
+		try {
+			return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e) {
+			return ForkJoinPool.commonPool();
+		}
+	}
+
+	/*KMAC functions*/
+
+	public CompletableFuture<byte[]> cryptographicHash(byte[] m) {
+		return CompletableFuture.supplyAsync(() -> kmac.cryptographicHash(m), executor);
+	}
+
+	public CompletableFuture<byte[]> authenticationTag(byte[] m, byte[] pw) {
+		return CompletableFuture.supplyAsync(() -> kmac.authenticationTag(m, pw), executor);
+	}
+
+	public CompletableFuture<byte[]> encrypt(byte[] m, byte[] pw) {
+		return CompletableFuture.supplyAsync(() -> kmac.encrypt(m, pw), executor);
+	}
+
+	public CompletableFuture<byte[]> decrypt(byte[] gram, byte[] pw) {
+		return CompletableFuture.supplyAsync(() -> kmac.decrypt(gram, pw), executor);
+	}
+
+	/*EC functions*/
+
+	public CompletableFuture<EcPrivateKey> deriveKey(byte[] pw) {
+		return CompletableFuture.supplyAsync(() -> ec.deriveKey(pw), executor);
+	}
+
+	/**
+	 * Derives the key and its public key V <- s*G
+	 */
+	public CompletableFuture<EcPrivateKey> keyPair(byte[] pw) {
+		return deriveKey(pw).thenApplyAsync(key -> {
+			key.getPublicKey();
+			return key;
+		}, executor);
+	}
+
+	/**
+	 * Encrypts m under V, computing W <- k*V and Z <- k*G in parallel
+	 * (or taking Z from the engine's EphemeralPool when it has one ready)
+	 */
+	public CompletableFuture<CurveGram> encrypt(byte[] m, EcPublicKey V) {
+		EphemeralPool.Pair pair = ec.pooledEphemeral();
+		BigInteger k = pair != null ? pair.k : EcurveFunctions.randomScalar();
+
+		CompletableFuture<Ecurve> W = CompletableFuture.supplyAsync(() -> V.exponentiation(k), executor);
+		CompletableFuture<Ecurve> Z = pair != null
+				? CompletableFuture.completedFuture(pair.Z)
+				: CompletableFuture.supplyAsync(() -> EcurveFunctions.getGeneratorTable().exponentiation(k), executor);
+		return Z.thenCombineAsync(W, (z, w) -> ec.seal(z, w, m), executor);
+	}
+
+	public CompletableFuture<byte[]> decrypt(CurveGram r, EcPrivateKey key) {
+		return CompletableFuture.supplyAsync(() -> ec.decrypt(r, key), executor);
+	}
+
+	public CompletableFuture<byte[]> sign(EcPrivateKey key, byte[] m) {
+		return CompletableFuture.supplyAsync(() -> ec.sigGenerator(key, m), executor);
+	}
+
+	/**
+	 * Verifies (h,z) on m, computing z*G and h*V in parallel before U <- z*G + h*V
+	 */
+	public CompletableFuture<Boolean> verify(byte[][] sig, byte[] m, EcPublicKey V) {
+		BigInteger h = new BigInteger(sig[0]);
+		BigInteger z = new BigInteger(sig[1]);
+
+		CompletableFuture<Ecurve> zG = CompletableFuture.supplyAsync(() -> EcurveFunctions.getGeneratorTable().exponentiation(z), executor);
+		CompletableFuture<Ecurve> hV = CompletableFuture.supplyAsync(() -> V.exponentiation(h), executor);
+		return zG.thenCombineAsync(hV, (a, b) -> ec.checkCommitment(a.sum(b), sig, m), executor);
+	}
+}
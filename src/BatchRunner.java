@@ -0,0 +1,366 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-interactive operations for the command line.
+ *
+ * A single operation:   [kmac/ec] [function] [input] [output] [key]
+ * A whole manifest:     batch [manifest.txt] [threads]
+ * A loopback service:   serve [port]   (see CryptoServer, runs until the JVM is stopped)
+ *
+ * Each manifest line is "operation input output key", e.g. "kmac.encrypt a.txt a.enc pw.txt".
+ * Blank lines and lines starting with # are skipped. Lines are run by a fixed pool of workers
+ * (one per core by default), each file's result is printed as it finishes, and totals are printed at the end.
+ *
+ * Operations and their columns:
+ *  kmac.plainhash      input  hash        -  (input may be a directory; key "merkle" adds a Merkle root)
+ *  kmac.merkle         input  root        tree file (default input.mtree; chunks that did not change keep their hashes),
+ *                                         or a ranges file of "offset length" lines written since input.mtree was saved,
+ *                                         so only those chunks are read (without one every chunk is read and compared)
+ *  kmac.authentication input  tag         passphrase
+ *  kmac.encrypt        input  cryptogram  passphrase
+ *  kmac.decrypt        input  message     passphrase
+ *  ec.keypair          passphrase  keypair  -
+ *  ec.encrypt          input  cryptogram  public key (or keypair file)
+ *  ec.decrypt          input  message     passphrase
+ *  ec.sign / ec.signfile      input  signature  passphrase
+ *  ec.verify / ec.verifyfile  input  signature  public key (or keypair file)
+ *  ec.keyring          public key (or keypair file)  keyring  -   (adds the key and its table)
+ *
+ * Wherever a public key is expected, "ring.krg#fingerprint" names a key in a keyring
+ * by a hex prefix of its fingerprint; it is used with its stored table.
+ *
+ * Bulk input and output go through PipelinedIO, so disk reads and writes overlap the cipher.
+ * Cryptograms, signatures and key pairs are written as CryptoFile containers;
+ * the bare formats written by earlier versions are still read.
+ *
+ * @author Andrew Josten
+ */
+public class BatchRunner {
+	private final KmacFunctions kmac = new KmacFunctions();
+	private final EcurveFunctions ec = new EcurveFunctions();
+
+	//Keys are read and derived once per file name, however many lines use them
+	private final ConcurrentHashMap<String, byte[]> passphrases = new ConcurrentHashMap<String, byte[]>();
+	private final ConcurrentHashMap<String, EcPrivateKey> privateKeys = new ConcurrentHashMap<String, EcPrivateKey>();
+	private final ConcurrentHashMap<String, EcPublicKey> publicKeys = new ConcurrentHashMap<String, EcPublicKey>();
+	private final ConcurrentHashMap<String, Keyring> keyrings = new ConcurrentHashMap<String, Keyring>();
+
+	/**
+	 * Runs the command line arguments
+	 * @return the process exit code, 0 if everything succeeded
+	 */
+	public static int run(String[] args) throws IOException, InterruptedException {
+		if(args[0].equalsIgnoreCase("serve")) {
+			CryptoServer server = new CryptoServer(args.length > 1 ? Integer.parseInt(args[1]) : 8521);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(1)));
+			server.start();
+			System.out.println("Serving on http://127.0.0.1:" + server.getPort() + "/");
+			server.await();
+			return 0;
+		}
+
+		BatchRunner runner = new BatchRunner();
+		if(args[0].equalsIgnoreCase("batch")) {
+			if(args.length < 2) {
+				System.out.println("Usage: batch [manifest.txt] [threads]");
+				return 2;
+			}
+			int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			return runner.runManifest(args[1], threads);
+		}
+
+		if(args.length < 4) {
+			System.out.println("Usage: [kmac/ec] [function] [input] [output] [key]");
+			return 2;
+		}
+		String op = args[0].toLowerCase() + "." + args[1].toLowerCase();
+		String result = runner.runLine(op, args[2], args[3], args.length > 4 ? args[4] : null);
+		System.out.println(result);
+		return result.startsWith("OK") ? 0 : 1;
+	}
+
+	/**
+	 * Runs every line of a manifest on a pool of worker threads
+	 * @return 0 if every line succeeded, 1 otherwise
+	 */
+	public int runManifest(String manifest, int threads) throws IOException, InterruptedException {
+		//A short queue, with the reading thread running tasks itself when it is full,
+		//keeps a manifest of any length from being loaded into memory all at once
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		AtomicInteger done = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		AtomicLong bytes = new AtomicLong();
+
+		long start = System.nanoTime();
+		try(BufferedReader lines = new BufferedReader(new FileReader(manifest))) {
+			String line;
+			while((line = lines.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] f = line.split("\\s+");
+				workers.execute(() -> {
+					String result = f.length < 3
+							? "FAIL " + String.join(" ", f) + ": expected operation input output [key]"
+							: runLine(f[0].toLowerCase(), f[1], f[2], f.length > 3 ? f[3] : null);
+					if(result.startsWith("OK")) {
+						bytes.addAndGet(new File(f[1]).length());
+					}
+					else {
+						failed.incrementAndGet();
+					}
+					done.incrementAndGet();
+					System.out.println(result);
+				});
+			}
+		}
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double mb = bytes.get() / 1e6;
+		System.out.println(String.format(Locale.ROOT, "%d files, %d failed, %.1f MB in %.2f s (%.1f MB/s, %.1f files/s, %d threads)",
+				done.get(), failed.get(), mb, seconds, mb / seconds, done.get() / seconds, threads));
+		return failed.get() == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Runs one operation
+	 * @return "OK ..." or "FAIL ..." with the reason
+	 */
+	public String runLine(String op, String input, String output, String key) {
+		long start = System.nanoTime();
+		try {
+			String failure = execute(op, input, output, key);
+			long ms = (System.nanoTime() - start) / 1000000;
+			if(failure != null) {
+				return "FAIL " + op + " " + input + ": " + failure;
+			}
+			return "OK   " + op + " " + input + " -> " + output + " (" + new File(input).length() + " bytes, " + ms + " ms)";
+		}
+		catch(IOException | RuntimeException e) {
+			return "FAIL " + op + " " + input + ": " + e;
+		}
+	}
+
+	/**
+	 * @return null on success, otherwise why it failed
+	 */
+	private String execute(String op, String input, String output, String key) throws IOException {
+		switch(op) {
+			case "kmac.plainhash":
+				//a directory gets a manifest of all its files, and a Merkle root if the key column says "merkle"
+				if(new File(input).isDirectory()) {
+					TreeHasher tree = new TreeHasher();
+					try {
+						List<TreeHasher.Entry> entries = tree.hash(new File(input).toPath());
+						write(output, TreeHasher.manifest(entries, "merkle".equalsIgnoreCase(key)).getBytes(StandardCharsets.UTF_8));
+					}
+					finally {
+						tree.shutdown();
+					}
+					return null;
+				}
+				//same as KmacFunctions.cryptographicHash, streamed
+				write(output, TreeHasher.hashFile(new File(input).toPath()));
+				return null;
+			case "kmac.merkle":
+				Path file = new File(input).toPath();
+				//an existing key file that is not a tree lists the ranges written since the default tree was saved
+				Path named = key != null ? new File(key).toPath() : null;
+				boolean ranges = named != null && Files.exists(named) && !MerkleFile.isTreeFile(named);
+				Path treeFile = named != null && !ranges ? named : MerkleFile.treeFileFor(file);
+				MerkleFile merkle;
+				if(Files.exists(treeFile)) {
+					merkle = MerkleFile.load(treeFile);
+					if(ranges) {
+						markDirty(merkle, named);
+						merkle.update(file);
+					}
+					else {
+						merkle.rescan(file);
+					}
+				}
+				else {
+					merkle = MerkleFile.build(file);
+				}
+				merkle.save(treeFile);
+				write(output, merkle.root());
+				return null;
+			case "kmac.authentication":
+				try(InputStream in = open(input)) {
+					write(output, kmac.authenticationTag(in, passphrase(key)));
+				}
+				return null;
+			case "kmac.encrypt":
+				try(InputStream in = open(input); OutputStream out = create(output)) {
+					CryptoFile.encrypt(kmac, in, out, passphrase(key), true);
+				}
+				return null;
+			case "kmac.decrypt":
+				boolean sealed = CryptoFile.isContainer(new File(input).toPath());
+				boolean opened;
+				try(InputStream in = open(input); OutputStream out = create(output)) {
+					opened = sealed ? CryptoFile.decrypt(kmac, in, out, passphrase(key))
+							: kmac.decrypt(in, out, passphrase(key));//bare z || c || t
+				}
+				if(!opened) {
+					new File(output).delete();
+					return "Failed to decrypt";
+				}
+				return null;
+			case "ec.keypair":
+				EcPrivateKey pair = privateKey(input);
+				write(output, CryptoFile.keyPair(pair.getPublicKey(), pair.getS()));
+				return null;
+			case "ec.encrypt":
+				try(InputStream in = open(input); OutputStream out = create(output)) {
+					CryptoFile.encrypt(ec, in, out, publicKey(key), true);
+				}
+				return null;
+			case "ec.decrypt":
+				boolean container = CryptoFile.isContainer(new File(input).toPath());
+				boolean valid;
+				try(InputStream in = open(input); OutputStream out = create(output)) {
+					valid = container ? CryptoFile.decrypt(ec, in, out, privateKey(key))
+							: ec.decrypt(in, out, privateKey(key));//bare Z || c || t
+				}
+				if(!valid) {
+					new File(output).delete();//never leave unauthenticated output behind
+					return "Failed to decrypt: Ecurve";
+				}
+				return null;
+			case "ec.sign":
+				write(output, CryptoFile.signature(ec.sigGenerator(privateKey(key), read(input)), false));
+				return null;
+			case "ec.signfile":
+				try(InputStream in = open(input)) {
+					write(output, CryptoFile.signature(ec.sigGeneratorPrehashed(privateKey(key), in), true));
+				}
+				return null;
+			case "ec.verify":
+				return ec.verify(CryptoFile.readSignature(read(output), CryptoFile.Algorithm.SIGNATURE), read(input), publicKey(key))
+						? null : "Signature failed";
+			case "ec.verifyfile":
+				try(InputStream in = open(input)) {
+					return ec.verifyPrehashed(CryptoFile.readSignature(read(output), CryptoFile.Algorithm.PREHASH_SIGNATURE), in, publicKey(key))
+							? null : "Signature failed";
+				}
+			case "ec.keyring":
+				//the ring is rewritten whole, so additions to it take turns
+				synchronized(keyrings) {
+					Keyring old = keyrings.remove(output);
+					if(old != null) {
+						old.close();
+					}
+					Keyring.add(new File(output).toPath(), Collections.singletonList(publicKey(input)), true);
+				}
+				return null;
+			default:
+				return "unrecognized operation";
+		}
+	}
+
+	private byte[] passphrase(String file) throws IOException {
+		byte[] pw = passphrases.get(file);
+		if(pw == null) {
+			pw = read(file);
+			passphrases.put(file, pw);
+		}
+		return pw;
+	}
+
+	private EcPrivateKey privateKey(String file) throws IOException {
+		EcPrivateKey k = privateKeys.get(file);
+		if(k == null) {
+			k = ec.deriveKey(passphrase(file));
+			privateKeys.put(file, k);
+		}
+		return k;
+	}
+
+	//a key pair or public key container, the compressed V at the start of a bare keypair file, or ring#fingerprint
+	private EcPublicKey publicKey(String file) throws IOException {
+		EcPublicKey V = publicKeys.get(file);
+		if(V == null) {
+			if(Keyring.isReference(file)) {
+				int hash = file.lastIndexOf('#');
+				V = keyring(file.substring(0, hash)).find(file.substring(hash + 1));
+			}
+			else {
+				V = CryptoFile.readPublicKey(read(file));
+			}
+			publicKeys.put(file, V);
+		}
+		return V;
+	}
+
+	private Keyring keyring(String file) throws IOException {
+		synchronized(keyrings) {
+			Keyring ring = keyrings.get(file);
+			if(ring == null) {
+				ring = Keyring.open(new File(file).toPath());
+				keyrings.put(file, ring);
+			}
+			return ring;
+		}
+	}
+
+	//"offset length" per line; blank lines and lines starting with # are skipped
+	private static void markDirty(MerkleFile merkle, Path ranges) throws IOException {
+		for(String line : Files.readAllLines(ranges, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] range = line.split("\\s+");
+			try {
+				if(range.length != 2) {
+					throw new IllegalArgumentException();
+				}
+				merkle.markDirty(Long.parseLong(range[0]), Long.parseLong(range[1]));
+			}
+			catch(IllegalArgumentException e) {
+				throw new IOException("Bad range in " + ranges + ": " + line);
+			}
+		}
+	}
+
+		private static InputStream open(String name) throws IOException {
+		return PipelinedIO.read(new File(name).toPath());
+	}
+
+	private static OutputStream create(String name) throws IOException {
+		return PipelinedIO.write(new File(name).toPath());
+	}
+
+	private static byte[] read(String name) throws IOException {
+		return Files.readAllBytes(new File(name).toPath());
+	}
+
+	private static void write(String name, byte[] out) throws IOException {
+		try(OutputStream bytesOut = new FileOutputStream(name)) {
+			bytesOut.write(out);
+		}
+	}
+}
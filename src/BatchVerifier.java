@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies many Schnorr signatures, each under its own message and public key.
+ *
+ * Signatures are (h,z) pairs where h is a hash of the commitment U, so U has to be
+ * rebuilt for every signature and a random linear combination of the batch cannot be checked.
+ * Instead each U <- z*G + h*V is done with one shared double-and-add pass
+ * and the batch is spread over all cores. Failures are reported per item.
+ *
+ * @author Andrew Josten
+ */
+public class BatchVerifier {
+	private final EcurveFunctions ec;
+
+	//The queued (signature, message, public key) tuples
+	private final List<byte[][]> sigs = new ArrayList<byte[][]>();
+	private final List<byte[]> messages = new ArrayList<byte[]>();
+	private final List<Ecurve> keys = new ArrayList<Ecurve>();
+	//results for the queue as it stands, null until verified or after it changes
+	private boolean[] results;
+
+	public BatchVerifier() {
+		ec = new EcurveFunctions();
+	}
+
+	/**
+	 * Queues a signature to be verified
+	 * @param sig the 130 byte signature as written by sigGenerator
+	 * @param m the signed message
+	 * @param V the signer's public key
+	 */
+	public void add(byte[] sig, byte[] m, Ecurve V) {
+		sigs.add(EcurveFunctions.splitSignature(sig));
+		messages.add(m);
+		keys.add(V);
+		results = null;
+	}
+
+	public int size() {
+		return sigs.size();
+	}
+
+	/**
+	 * Verifies every queued signature in parallel. The results are kept until the queue changes,
+	 * so verifyAll and failures after this (or after each other) do not verify again.
+	 * @return one entry per queued signature, true if that signature is valid
+	 */
+	public boolean[] verifyEach() {
+		return results().clone();
+	}
+
+	private boolean[] results() {
+		if(results == null) {
+			boolean[] r = new boolean[sigs.size()];
+			IntStream.range(0, r.length).parallel().forEach(i ->
+				r[i] = ec.verify(sigs.get(i), messages.get(i), keys.get(i)));
+			results = r;
+		}
+		return results;
+	}
+
+	/**
+	 * Returns true only if every queued signature is valid
+	 */
+	public boolean verifyAll() {
+		for(boolean b : results()) {
+			if(!b) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the positions of the signatures that failed to verify
+	 * @return indices in the order the signatures were added
+	 */
+	public List<Integer> failures() {
+		boolean[] results = results();
+		List<Integer> failed = new ArrayList<Integer>();
+		for(int i = 0; i < results.length; i++) {
+			if(!results[i]) {
+				failed.add(i);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Empties the batch so it can be reused
+	 */
+	public void clear() {
+		sigs.clear();
+		messages.clear();
+		keys.clear();
+		results = null;
+	}
+}
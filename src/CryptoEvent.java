@@ -0,0 +1,41 @@
+/**
+ * Flight Recorder event for one KmacFunctions or EcurveFunctions operation.
+ * Disabled by default; turn it on in a .jfc file or with
+ *  -XX:StartFlightRecording:settings=profile,+cryptoapp.Operation#enabled=true (JDK 17+),
+ * or jcmd JFR.configure. While disabled (or without jdk.jfr) only the start time is kept.
+ *
+ * @author Andrew Josten
+ */
+public class CryptoEvent {
+	private static final FlightRecorder.Type TYPE = FlightRecorder.define("cryptoapp.Operation", "Crypto Operation",
+			"A hash, MAC, encrypt, decrypt, sign or verify call",
+			FlightRecorder.field(String.class, "operation", "Operation", null, false),
+			FlightRecorder.field(long.class, "inputSize", "Input Size", "Bytes in, -1 when streamed", true),
+			FlightRecorder.field(long.class, "outputSize", "Output Size", "Bytes out, -1 when streamed", true));
+
+	private final Object event;
+
+	//for the metrics histogram, not recorded
+	final long startNanos;
+
+	private CryptoEvent(Object event) {
+		this.event = event;
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts timing an operation
+	 */
+	static CryptoEvent start() {
+		return new CryptoEvent(TYPE.begin());
+	}
+
+	/**
+	 * Ends the event and commits it if recording is enabled
+	 */
+	void finish(String operation, long inputSize, long outputSize) {
+		if(event != null) {
+			TYPE.commit(event, operation, inputSize, outputSize);
+		}
+	}
+}
@@ -0,0 +1,685 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Versioned container for everything the app writes: cryptograms, signatures and keys.
+ *
+ *  header:  "KCRY" || version (1 byte) || algorithm id (1 byte) || flags (1 byte) || 0
+ *  frames:  type (1 byte) || length (4 bytes, big endian) || payload
+ *
+ * Every file ends with an END frame whose 8 byte payload is the offset of the INDEX frame, or -1.
+ * Long payloads (c, the multi recipient payload) are cut into DATA frames of at most CHUNK bytes,
+ * so they can be written and read as streams; with the INDEXED flag an INDEX frame lists
+ * the offset of every DATA frame, so a reader can seek to any chunk from the end of the file.
+ *
+ * Files without the magic are the older bare formats (z || c || t, Z || c || t, h || z, V || s)
+ * and the read methods still accept them.
+ *
+ * @author Andrew Josten
+ */
+public class CryptoFile {
+	static final byte[] MAGIC = {'K', 'C', 'R', 'Y'};
+	public static final int VERSION = 1;
+	public static final int HEADER_LENGTH = 8;
+	//Largest DATA frame
+	public static final int CHUNK = 65536;
+	//Largest frame a reader will load into memory
+	private static final int MAX_FRAME = 1 << 24;
+	//END frame: type || length || 8 byte index offset
+	private static final int END_LENGTH = 1 + 4 + 8;
+
+	public static final int FLAG_INDEXED = 1;
+
+	/*Frame types*/
+	public static final int END = 0;
+	public static final int NONCE = 1;//z
+	public static final int EPHEMERAL = 2;//compressed Z
+	public static final int PUBLIC_KEY = 3;//compressed V
+	public static final int PRIVATE_KEY = 4;//s
+	public static final int DATA = 5;//a chunk of c or of a payload
+	public static final int TAG = 6;//t
+	public static final int SIGNATURE_H = 7;
+	public static final int SIGNATURE_Z = 8;
+	public static final int INDEX = 9;
+	public static final int RECIPIENT = 10;//fingerprint || wrapped content key
+	//in an Algorithm layout, a frame type that may repeat or be missing
+	private static final int MANY = 256;
+
+	/**
+	 * What a container holds. Ids are never reused.
+	 */
+	public enum Algorithm {
+		SYMMETRIC(1, NONCE, DATA | MANY, TAG),
+		ECDHIES(2, EPHEMERAL, DATA | MANY, TAG),
+		SIGNATURE(3, SIGNATURE_H, SIGNATURE_Z),
+		PREHASH_SIGNATURE(4, SIGNATURE_H, SIGNATURE_Z),//of prehash(m)
+		KEY_PAIR(5, CryptoFile.PUBLIC_KEY, PRIVATE_KEY),
+		PUBLIC_KEY(6, CryptoFile.PUBLIC_KEY),
+		MULTI_RECIPIENT(7, RECIPIENT | MANY, DATA | MANY);
+
+		public final int id;
+		//the frame types in order before the INDEX and END, | MANY for any number of them
+		private final int[] layout;
+
+		Algorithm(int id, int... layout) {
+			this.id = id;
+			this.layout = layout;
+		}
+
+		static Algorithm of(int id) throws IOException {
+			for(Algorithm a : values()) {
+				if(a.id == id) {
+					return a;
+				}
+			}
+			throw new IOException("Unknown algorithm id " + id);
+		}
+	}
+
+	/**
+	 * Writes a container frame by frame
+	 */
+	public static final class Writer {
+		private final DataOutputStream out;
+		private final boolean indexed;
+		private final List<Long> chunks = new ArrayList<Long>();
+		private long offset;
+		private final byte[] pending = new byte[CHUNK];
+		private int pendingLength;
+
+		public Writer(OutputStream out, Algorithm algorithm, boolean indexed) throws IOException {
+			this.out = new DataOutputStream(out);
+			this.indexed = indexed;
+			this.out.write(MAGIC);
+			this.out.write(new byte[] {(byte) VERSION, (byte) algorithm.id, (byte) (indexed ? FLAG_INDEXED : 0), 0});
+			offset = HEADER_LENGTH;
+		}
+
+		/**
+		 * Writes one whole frame, after any DATA still buffered
+		 */
+		public void frame(int type, byte[] payload) throws IOException {
+			flushData();
+			writeFrame(type, payload, 0, payload.length);
+		}
+
+		/**
+		 * A stream whose bytes become DATA frames of CHUNK bytes.
+		 * The last partial chunk goes out with the next frame or finish.
+		 */
+		public OutputStream data() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					while(len > 0) {
+						int n = Math.min(len, CHUNK - pendingLength);
+						System.arraycopy(b, off, pending, pendingLength, n);
+						pendingLength += n;
+						off += n;
+						len -= n;
+						if(pendingLength == CHUNK) {
+							flushData();
+						}
+					}
+				}
+			};
+		}
+
+		/**
+		 * Writes the index (if asked for) and the END frame. The underlying stream is flushed, not closed.
+		 */
+		public void finish() throws IOException {
+			flushData();
+			long indexOffset = -1;
+			if(indexed) {
+				indexOffset = offset;
+				ByteArrayOutputStream index = new ByteArrayOutputStream(4 + 8 * chunks.size());
+				DataOutputStream d = new DataOutputStream(index);
+				d.writeInt(chunks.size());
+				for(long c : chunks) {
+					d.writeLong(c);
+				}
+				writeFrame(INDEX, index.toByteArray(), 0, index.size());
+			}
+			byte[] end = new byte[8];
+			for(int i = 0; i < 8; i++) {
+				end[i] = (byte) (indexOffset >>> (56 - 8 * i));
+			}
+			writeFrame(END, end, 0, 8);
+			out.flush();
+		}
+
+		private void flushData() throws IOException {
+			if(pendingLength > 0) {
+				chunks.add(offset);
+				writeFrame(DATA, pending, 0, pendingLength);
+				pendingLength = 0;
+			}
+		}
+
+		private void writeFrame(int type, byte[] b, int off, int len) throws IOException {
+			out.writeByte(type);
+			out.writeInt(len);
+			out.write(b, off, len);
+			offset += 5 + len;
+		}
+	}
+
+	/**
+	 * Reads a container frame by frame, from a stream, never holding more than one frame
+	 */
+	public static final class Reader {
+		private final DataInputStream in;
+		public final int version;
+		public final Algorithm algorithm;
+		public final boolean indexed;
+
+		private int type = -1;
+		private int remaining;
+		private boolean peeked;
+
+		/**
+		 * Reads and checks the header
+		 */
+		public Reader(InputStream in) throws IOException {
+			this.in = new DataInputStream(in);
+			byte[] header = new byte[HEADER_LENGTH];
+			this.in.readFully(header);
+			if(!isContainer(header)) {
+				throw new IOException("Not a container file");
+			}
+			version = header[4] & 255;
+			if(version > VERSION) {
+				throw new IOException("Container version " + version + " is newer than this reader (" + VERSION + ")");
+			}
+			algorithm = Algorithm.of(header[5] & 255);
+			indexed = (header[6] & FLAG_INDEXED) != 0;
+		}
+
+		/**
+		 * Moves to the next frame, skipping whatever is left of the current one
+		 * @return its type
+		 */
+		public int next() throws IOException {
+			if(peeked) {
+				peeked = false;
+				return type;
+			}
+			skipRest();
+			type = in.readUnsignedByte();
+			remaining = in.readInt();
+			if(remaining < 0) {
+				throw new IOException("Bad frame length");
+			}
+			return type;
+		}
+
+		/**
+		 * Length of the current frame's payload
+		 */
+		public int length() {
+			return remaining;
+		}
+
+		/**
+		 * Reads the current frame's payload
+		 */
+		public byte[] payload() throws IOException {
+			if(remaining > MAX_FRAME) {
+				throw new IOException("Frame of " + remaining + " bytes is too large to load");
+			}
+			byte[] b = new byte[remaining];
+			in.readFully(b);
+			remaining = 0;
+			return b;
+		}
+
+		/**
+		 * Moves to the next frame, which must be of the given type, and reads it
+		 */
+		public byte[] expect(int type) throws IOException {
+			int t = next();
+			if(t != type) {
+				throw new IOException("Expected frame type " + type + " but found " + t);
+			}
+			return payload();
+		}
+
+		/**
+		 * The payloads of the DATA frames from here on, as one stream.
+		 * It ends at the first other frame, which next() then returns.
+		 */
+		public InputStream data() {
+			return new InputStream() {
+				private boolean done;
+
+				@Override
+				public int read() throws IOException {
+					byte[] one = new byte[1];
+					return read(one, 0, 1) == -1 ? -1 : one[0] & 255;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					while(!done && remaining == 0) {
+						if(next() != DATA) {
+							peeked = true;
+							done = true;
+						}
+					}
+					if(done) {
+						return -1;
+					}
+					int n = in.read(b, off, Math.min(len, remaining));
+					if(n == -1) {
+						throw new EOFException("Truncated DATA frame");
+					}
+					remaining -= n;
+					return n;
+				}
+			};
+		}
+
+		/**
+		 * Reads the END frame, passing over the INDEX frame if there is one
+		 * @return the offset of the index, -1 if there is none
+		 */
+		public long end() throws IOException {
+			int t = next();
+			if(t == INDEX) {
+				t = next();
+			}
+			if(t != END) {
+				throw new IOException("Expected frame type " + END + " but found " + t);
+			}
+			byte[] e = payload();
+			if(e.length != 8) {
+				throw new IOException("Bad END frame");
+			}
+			return new DataInputStream(new ByteArrayInputStream(e)).readLong();
+		}
+
+		private void skipRest() throws IOException {
+			while(remaining > 0) {
+				int n = in.skipBytes(remaining);
+				if(n <= 0) {
+					in.readByte();//throws at the end of the stream
+					n = 1;
+				}
+				remaining -= n;
+			}
+		}
+	}
+
+	/**
+	 * True if b starts with the container magic
+	 */
+	public static boolean isContainer(byte[] b) {
+		return b.length >= MAGIC.length && Arrays.equals(Arrays.copyOf(b, MAGIC.length), MAGIC);
+	}
+
+	/**
+	 * True if the file starts with the container magic, reading only its first bytes
+	 */
+	public static boolean isContainer(Path file) throws IOException {
+		byte[] head = new byte[MAGIC.length];
+		try(InputStream in = Files.newInputStream(file)) {
+			return StreamCipher.readFully(in, head, 0, head.length) == head.length && isContainer(head);
+		}
+	}
+
+	/*Cryptograms*/
+
+	/**
+	 * Symmetric encryption under pw, streamed into a SYMMETRIC container
+	 */
+	public static void encrypt(KmacFunctions kmac, InputStream in, OutputStream out, byte[] pw, boolean indexed) throws IOException {
+		//z <- Random(512)
+		byte[] z = new byte[64];
+		KmacDrbg.current().nextBytes(z);
+		KMACStream[] streams = kmac.symmetricStreams(z, pw);
+
+		Writer w = new Writer(out, Algorithm.SYMMETRIC, indexed);
+		w.frame(NONCE, z);
+		StreamCipher.encrypt(in, w.data(), streams[0], streams[1]);
+		w.frame(TAG, streams[1].digest(512));
+		w.finish();
+	}
+
+	/**
+	 * Decrypts a SYMMETRIC container. m is written as it is decrypted, before t can be checked,
+	 * so the caller must throw the output away if this returns false.
+	 * @return true if t matched
+	 */
+	public static boolean decrypt(KmacFunctions kmac, InputStream in, OutputStream out, byte[] pw) throws IOException {
+		Reader r = open(in, Algorithm.SYMMETRIC);
+		KMACStream[] streams = kmac.symmetricStreams(r.expect(NONCE), pw);
+		StreamCipher.decrypt(r.data(), out, streams[0], streams[1]);
+		byte[] t = r.expect(TAG);
+		r.end();
+		return Arrays.equals(t, streams[1].digest(512));
+	}
+
+	/**
+	 * ECDHIES encryption under V, streamed into an ECDHIES container
+	 */
+	public static void encrypt(EcurveFunctions ec, InputStream in, OutputStream out, EcPublicKey V, boolean indexed) throws IOException {
+		EphemeralPool.Pair pair = ec.ephemeral();
+		//W<-k*V
+		KMACStream[] streams = ec.curveStreams(V.exponentiation(pair.k));
+
+		Writer w = new Writer(out, Algorithm.ECDHIES, indexed);
+		w.frame(EPHEMERAL, pair.Z.toCompressedBytes());
+		StreamCipher.encrypt(in, w.data(), streams[0], streams[1]);
+		w.frame(TAG, streams[1].digest(512));
+		w.finish();
+	}
+
+	/**
+	 * Decrypts an ECDHIES container, with the same caveat as the symmetric decrypt
+	 * @return true if t matched
+	 */
+	public static boolean decrypt(EcurveFunctions ec, InputStream in, OutputStream out, EcPrivateKey key) throws IOException {
+		Reader r = open(in, Algorithm.ECDHIES);
+		byte[] Z = r.expect(EPHEMERAL);
+		if(Z.length != Ecurve.COMPRESSED_LENGTH) {
+			throw new IOException("Bad EPHEMERAL frame");
+		}
+		//W <- s*Z
+		KMACStream[] streams = ec.curveStreams(Ecurve.fromCompressed(Z, 0).exponentiation(key.getS()));
+		StreamCipher.decrypt(r.data(), out, streams[0], streams[1]);
+		byte[] t = r.expect(TAG);
+		r.end();
+		return Arrays.equals(t, streams[1].digest(512));
+	}
+
+	/**
+	 * A multi recipient cryptogram as a MULTI_RECIPIENT container
+	 */
+	public static byte[] multiRecipient(MultiGram g) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		Writer w = new Writer(b, Algorithm.MULTI_RECIPIENT, false);
+		for(int i = 0; i < g.wraps.length; i++) {
+			w.frame(RECIPIENT, EcurveFunctions.concat(g.fingerprints[i], g.wraps[i].toBytes()));
+		}
+		w.data().write(g.payload);
+		w.finish();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Reads a multi recipient cryptogram, container or bare MultiGram bytes
+	 */
+	public static MultiGram readMultiRecipient(byte[] file) throws IOException {
+		if(!isContainer(file)) {
+			return MultiGram.fromBytes(file);
+		}
+		Reader r = open(new ByteArrayInputStream(file), Algorithm.MULTI_RECIPIENT);
+		List<byte[]> fingerprints = new ArrayList<byte[]>();
+		List<CurveGram> wraps = new ArrayList<CurveGram>();
+		int t;
+		while((t = r.next()) == RECIPIENT) {
+			byte[] fw = r.payload();
+			if(fw.length != MultiGram.FINGERPRINT_LENGTH + MultiGram.WRAP_LENGTH) {
+				throw new IOException("Bad RECIPIENT frame");
+			}
+			fingerprints.add(Arrays.copyOf(fw, MultiGram.FINGERPRINT_LENGTH));
+			wraps.add(CurveGram.fromBytes(Arrays.copyOfRange(fw, MultiGram.FINGERPRINT_LENGTH, fw.length)));
+		}
+		if(t != DATA) {
+			throw new IOException("Expected the payload");
+		}
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		payload.write(r.payload());
+		InputStream rest = r.data();
+		byte[] buf = new byte[StreamCipher.BLOCK];
+		int n;
+		while((n = rest.read(buf)) != -1) {
+			payload.write(buf, 0, n);
+		}
+		r.end();
+		return new MultiGram(fingerprints.toArray(new byte[0][]), wraps.toArray(new CurveGram[0]), payload.toByteArray());
+	}
+
+	/*Signatures and keys*/
+
+	/**
+	 * A 130 byte signature h || z as a SIGNATURE (or PREHASH_SIGNATURE) container
+	 */
+	public static byte[] signature(byte[] sig, boolean prehashed) throws IOException {
+		byte[][] hz = EcurveFunctions.splitSignature(sig);
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		Writer w = new Writer(b, prehashed ? Algorithm.PREHASH_SIGNATURE : Algorithm.SIGNATURE, false);
+		w.frame(SIGNATURE_H, hz[0]);
+		w.frame(SIGNATURE_Z, hz[1]);
+		w.finish();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Reads a signature, container or bare 130 bytes. A container must be of the kind being checked,
+	 * so a prehash signature is never verified as a plain one or the other way around.
+	 * @param expected SIGNATURE or PREHASH_SIGNATURE
+	 * @return {h, z}
+	 */
+	public static byte[][] readSignature(byte[] file, Algorithm expected) throws IOException {
+		if(expected != Algorithm.SIGNATURE && expected != Algorithm.PREHASH_SIGNATURE) {
+			throw new IllegalArgumentException("Not a signature algorithm: " + expected);
+		}
+		if(!isContainer(file)) {
+			return EcurveFunctions.splitSignature(file);
+		}
+		Reader r = open(new ByteArrayInputStream(file), expected);
+		byte[][] hz = {r.expect(SIGNATURE_H), r.expect(SIGNATURE_Z)};
+		r.end();
+		return hz;
+	}
+
+	/**
+	 * A key pair (V, s) as a KEY_PAIR container
+	 */
+	public static byte[] keyPair(EcPublicKey V, BigInteger s) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		Writer w = new Writer(b, Algorithm.KEY_PAIR, false);
+		w.frame(PUBLIC_KEY, V.toBytes());
+		w.frame(PRIVATE_KEY, s.toByteArray());
+		w.finish();
+		return b.toByteArray();
+	}
+
+	/**
+	 * A public key V alone as a PUBLIC_KEY container
+	 */
+	public static byte[] publicKey(EcPublicKey V) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		Writer w = new Writer(b, Algorithm.PUBLIC_KEY, false);
+		w.frame(PUBLIC_KEY, V.toBytes());
+		w.finish();
+		return b.toByteArray();
+	}
+
+	/**
+	 * Reads V from a KEY_PAIR or PUBLIC_KEY container, or from the compressed V at the start of a bare keypair file
+	 */
+	public static EcPublicKey readPublicKey(byte[] file) throws IOException {
+		if(!isContainer(file)) {
+			return EcPublicKey.fromBytes(file);
+		}
+		Reader r = new Reader(new ByteArrayInputStream(file));
+		if(r.algorithm != Algorithm.KEY_PAIR && r.algorithm != Algorithm.PUBLIC_KEY) {
+			throw new IOException("Not a key file: " + r.algorithm);
+		}
+		byte[] V = r.expect(PUBLIC_KEY);
+		if(V.length != Ecurve.COMPRESSED_LENGTH) {
+			throw new IOException("Bad PUBLIC_KEY frame");
+		}
+		return EcPublicKey.fromBytes(V);
+	}
+
+	/*Checking and seeking*/
+
+	/**
+	 * Walks every frame of a container, loading no payload but the INDEX, and checks that the frames
+	 * come in the order of its algorithm, that the INDEX lists the offset of every DATA frame
+	 * and that the END frame points at the INDEX
+	 * @return null if it is well formed, otherwise what is wrong with it
+	 */
+	public static String validate(InputStream in) {
+		try {
+			Reader r = new Reader(in);
+			int[] layout = r.algorithm.layout;
+			int at = 0;
+			long offset = HEADER_LENGTH;
+			List<Long> chunks = new ArrayList<Long>();
+			long[] listed = null;
+			long indexOffset = -1;
+			int t;
+			while((t = r.next()) != END) {
+				if(listed != null) {
+					return "frame after the INDEX at " + offset;
+				}
+				if(t == INDEX) {
+					if(!r.indexed) {
+						return "INDEX frame in a container without the index flag";
+					}
+					indexOffset = offset;
+					listed = readIndex(r.payload());
+					offset += 5 + 4 + 8L * listed.length;
+					continue;
+				}
+				//skip the repeatable types this frame is not, then it must be the next one
+				while(at < layout.length && (layout[at] & MANY) != 0 && (layout[at] & ~MANY) != t) {
+					at++;
+				}
+				if(at == layout.length || (layout[at] & ~MANY) != t) {
+					return "frame type " + t + " out of place in a " + r.algorithm + " container at " + offset;
+				}
+				if((layout[at] & MANY) == 0) {
+					at++;
+				}
+				if(t == DATA) {
+					chunks.add(offset);
+				}
+				offset += 5 + r.length();
+			}
+			while(at < layout.length && (layout[at] & MANY) != 0) {
+				at++;
+			}
+			if(at < layout.length) {
+				return "missing frame type " + layout[at] + " in a " + r.algorithm + " container";
+			}
+			if(r.length() != 8) {
+				return "bad END frame";
+			}
+			long index = new DataInputStream(new ByteArrayInputStream(r.payload())).readLong();
+			if(index != indexOffset) {
+				return r.indexed ? "END frame points at " + index + ", not the INDEX at " + indexOffset
+						: "END frame points at " + index + " in a container without an index";
+			}
+			if(r.indexed) {
+				if(listed == null) {
+					return "no INDEX frame";
+				}
+				if(listed.length != chunks.size()) {
+					return "INDEX lists " + listed.length + " DATA frames, the container has " + chunks.size();
+				}
+				for(int i = 0; i < listed.length; i++) {
+					if(listed[i] != chunks.get(i)) {
+						return "INDEX entry " + i + " is " + listed[i] + ", the DATA frame is at " + chunks.get(i);
+					}
+				}
+			}
+			if(in.read() != -1) {
+				return "bytes after the END frame";
+			}
+			return null;
+		}
+		catch(IOException e) {
+			return e.getMessage() == null ? e.toString() : e.getMessage();
+		}
+	}
+
+	/**
+	 * Reads the chunk index from the end of an indexed container, without reading the rest of the file
+	 * @return the file offset of every DATA frame, in order
+	 */
+	public static long[] readIndex(Path file) throws IOException {
+		try(RandomAccessFile f = new RandomAccessFile(file.toFile(), "r")) {
+			if(f.length() < HEADER_LENGTH + END_LENGTH) {
+				throw new IOException("Too short for a container");
+			}
+			long end = f.length() - END_LENGTH;
+			f.seek(end);
+			if(f.readUnsignedByte() != END || f.readInt() != 8) {
+				throw new IOException("No END frame");
+			}
+			long index = f.readLong();
+			if(index < 0) {
+				throw new IOException("The container has no index");
+			}
+			if(index < HEADER_LENGTH || index > end - 9) {
+				throw new IOException("END frame points outside the file");
+			}
+			f.seek(index);
+			if(f.readUnsignedByte() != INDEX) {
+				throw new IOException("END frame does not point at an INDEX frame");
+			}
+			//the INDEX must fill the space up to the END frame, which bounds the count before anything is allocated
+			int length = f.readInt();
+			if(length != end - index - 5) {
+				throw new IOException("INDEX frame does not end at the END frame");
+			}
+			int count = f.readInt();
+			if(count < 0 || length != 4 + 8L * count) {
+				throw new IOException("Bad INDEX frame");
+			}
+			long[] offsets = new long[count];
+			for(int i = 0; i < offsets.length; i++) {
+				offsets[i] = f.readLong();
+			}
+			return offsets;
+		}
+	}
+
+	/**
+	 * Parses an INDEX payload: count || offset*
+	 */
+	private static long[] readIndex(byte[] payload) throws IOException {
+		DataInputStream d = new DataInputStream(new ByteArrayInputStream(payload));
+		int count = payload.length < 4 ? -1 : d.readInt();
+		if(count < 0 || payload.length != 4 + 8L * count) {
+			throw new IOException("Bad INDEX frame");
+		}
+		long[] offsets = new long[count];
+		for(int i = 0; i < count; i++) {
+			offsets[i] = d.readLong();
+		}
+		return offsets;
+	}
+
+	private static Reader open(InputStream in, Algorithm expected) throws IOException {
+		Reader r = new Reader(in);
+		if(r.algorithm != expected) {
+			throw new IOException("Expected a " + expected + " container but found " + r.algorithm);
+		}
+		return r;
+	}
+}
@@ -0,0 +1,131 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the whole process, exposed over JMX as cryptoapp:type=CryptoMetrics
+ * once register() is called: by CryptoServer.start, and by Main when run with -Dcryptoapp.jmx=true.
+ * Counting itself never touches JMX, so library users who do not register pay nothing for it.
+ *
+ * Counters are LongAdders, which stripe under contention instead of sharing one cache line,
+ * and latencies go into LatencyHistograms, so recording never locks or allocates.
+ *
+ * @author Andrew Josten
+ */
+public class CryptoMetrics implements CryptoMetricsMBean {
+	/**
+	 * The timed operations
+	 */
+	public enum Op {
+		HASH, MAC, ENCRYPT, DECRYPT, ECENCRYPT, ECDECRYPT, SIGN, VERIFY;
+
+		final LatencyHistogram latency = new LatencyHistogram();
+		final String label = name().toLowerCase(Locale.ROOT);
+	}
+
+	static final LongAdder permutations = new LongAdder();
+	static final LongAdder bytesAbsorbed = new LongAdder();
+	static final LongAdder bytesSqueezed = new LongAdder();
+	static final LongAdder scalarMultiplications = new LongAdder();
+	static final LongAdder inversions = new LongAdder();
+
+	private static final CryptoMetrics instance = new CryptoMetrics();
+
+	//the table cache keeps its own totals, so reset remembers where they stood
+	private volatile long tableHitsBase;
+	private volatile long tableMissesBase;
+
+	private static boolean registered;
+
+	private CryptoMetrics() {
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server; later calls do nothing
+	 * @return false if JMX refused it (already registered by another class loader, or not allowed),
+	 * in which case the counters still work
+	 */
+	public static synchronized boolean register() {
+		if(!registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName("cryptoapp:type=CryptoMetrics"));
+				registered = true;
+			}
+			catch(JMException | SecurityException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static CryptoMetrics get() {
+		return instance;
+	}
+
+	/**
+	 * Records one run of op, timed by event (see CryptoEvent.start), and ends the event
+	 * @param inputSize bytes in, -1 if streamed
+	 * @param outputSize bytes out, -1 if streamed
+	 */
+	static void record(Op op, CryptoEvent event, long inputSize, long outputSize) {
+		op.latency.record(System.nanoTime() - event.startNanos);
+		event.finish(op.label, inputSize, outputSize);
+	}
+
+	public long getPermutations() {return permutations.sum();}
+	public long getBytesAbsorbed() {return bytesAbsorbed.sum();}
+	public long getBytesSqueezed() {return bytesSqueezed.sum();}
+	public long getScalarMultiplications() {return scalarMultiplications.sum();}
+	public long getInversions() {return inversions.sum();}
+
+	public long getTableCacheHits() {
+		return EcurveFunctions.getTableCache().getHits() - tableHitsBase;
+	}
+
+	public long getTableCacheMisses() {
+		return EcurveFunctions.getTableCache().getMisses() - tableMissesBase;
+	}
+
+	public double getTableCacheHitRate() {
+		long hits = getTableCacheHits();
+		long lookups = hits + getTableCacheMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public String[] getLatencies() {
+		Op[] ops = Op.values();
+		String[] lines = new String[ops.length];
+		for(int i = 0; i < ops.length; i++) {
+			LatencyHistogram h = ops[i].latency;
+			lines[i] = String.format(Locale.ROOT, "%-9s count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f us",
+					ops[i].label, h.getCount(), h.getMean() / 1000,
+					h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+					h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+		}
+		return lines;
+	}
+
+	public long getCount(String op) {
+		return Op.valueOf(op.toUpperCase(Locale.ROOT)).latency.getCount();
+	}
+
+	public double getLatencyMicros(String op, double percentile) {
+		return Op.valueOf(op.toUpperCase(Locale.ROOT)).latency.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	public void reset() {
+		permutations.reset();
+		bytesAbsorbed.reset();
+		bytesSqueezed.reset();
+		scalarMultiplications.reset();
+		inversions.reset();
+		tableHitsBase = EcurveFunctions.getTableCache().getHits();
+		tableMissesBase = EcurveFunctions.getTableCache().getMisses();
+		for(Op op : Op.values()) {
+			op.latency.reset();
+		}
+	}
+}
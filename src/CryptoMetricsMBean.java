@@ -0,0 +1,41 @@
+/**
+ * Management interface of CryptoMetrics, registered as cryptoapp:type=CryptoMetrics
+ *
+ * @author Andrew Josten
+ */
+public interface CryptoMetricsMBean {
+	/** keccak-f[1600] permutations run */
+	long getPermutations();
+
+	/** Bytes fed into Keccak sponges, padding and encodings included */
+	long getBytesAbsorbed();
+
+	/** Bytes squeezed out of Keccak sponges */
+	long getBytesSqueezed();
+
+	/** Scalar multiplications of E521 points (k*P), table based ones included */
+	long getScalarMultiplications();
+
+	/** modInverse calls mod p in point arithmetic */
+	long getInversions();
+
+	/** Lookups in the shared public key PointTable cache that found a table */
+	long getTableCacheHits();
+
+	long getTableCacheMisses();
+
+	/** Hits over lookups, 0 before the first lookup */
+	double getTableCacheHitRate();
+
+	/** One line per operation: count, mean, p50, p90, p99, p99.9 and max in microseconds */
+	String[] getLatencies();
+
+	/** Number of times op (hash, mac, encrypt, decrypt, ecencrypt, ecdecrypt, sign, verify) has run */
+	long getCount(String op);
+
+	/** Latency of op at the given percentile (0 to 100), in microseconds */
+	double getLatencyMicros(String op, double percentile);
+
+	/** Sets every counter and histogram back to 0 */
+	void reset();
+}
@@ -0,0 +1,334 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Long running HTTP service on the loopback interface, so many operations share one warmed up JVM,
+ * one pair of engines and their key caches (derived private keys, decoded public keys and
+ * the shared point tables) instead of paying start up for each.
+ *
+ * Every request is a POST whose body is the input, streamed in and out a block at a time.
+ * Keys travel in headers, Base64 encoded:
+ *  X-Passphrase   the passphrase bytes
+ *  X-Public-Key   the compressed V (66 bytes)
+ *  X-Signature    h || z (130 bytes)
+ *
+ *  /hash            body m         -> h
+ *  /mac             body m, pw     -> t
+ *  /encrypt         body m, pw     -> z || c || t
+ *  /decrypt         body z||c||t, pw  -> m, or 400 if t does not match
+ *  /ec/publickey    pw             -> V
+ *  /ec/encrypt      body m, V      -> Z || c || t
+ *  /ec/decrypt      body Z||c||t, pw  -> m, or 400 if t does not match
+ *  /ec/sign         body m, pw     -> h || z     (/ec/signfile signs the prehash of the body)
+ *  /ec/verify       body m, V, sig -> 200 valid or 400 invalid   (/ec/verifyfile for prehashed signatures)
+ *
+ * Decrypted output is held back until t has been checked, so no unauthenticated plaintext is ever sent:
+ * in memory when the request declares a Content-Length of at most 1 MB, otherwise in a temporary file
+ * that only the server's user can read (mode 600 where the file system has POSIX permissions,
+ * the temporary directory's own rules elsewhere), deleted once the response is done.
+ *
+ * @author Andrew Josten
+ */
+public class CryptoServer {
+	//Past this many entries a key cache is emptied rather than grown
+	private static final int KEY_CACHE_LIMIT = 1024;
+	//Decryptions of bodies up to this size are held in memory rather than spooled to disk
+	private static final long MEMORY_SPOOL = 1 << 20;
+
+	private final KmacFunctions kmac = new KmacFunctions();
+	private final KMAC digest = new KMAC();
+	private final EcurveFunctions ec;
+	//Derived private keys by KMACXOF256(cacheKey, passphrase, 256, "PC"), so no passphrase is kept;
+	//cacheKey is random per server, so the same passphrase has a different entry in every process
+	private final ConcurrentHashMap<ByteBuffer, EcPrivateKey> privateKeys = new ConcurrentHashMap<ByteBuffer, EcPrivateKey>();
+	private final byte[] cacheKey = new byte[32];
+	private final ConcurrentHashMap<String, EcPublicKey> publicKeys = new ConcurrentHashMap<String, EcPublicKey>();
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final EphemeralPool pool = new EphemeralPool(64);
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	/**
+	 * Binds to 127.0.0.1 (or the JVM's loopback address). Call start() to begin serving.
+	 * @param port the port, 0 for any free port
+	 */
+	public CryptoServer(int port) throws IOException {
+		KmacDrbg.current().nextBytes(cacheKey);
+		ec = new EcurveFunctions();
+		ec.setEphemeralPool(pool);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		executor = defaultExecutor();
+		server.setExecutor(executor);
+
+		server.createContext("/hash", x -> handle(x, () -> {
+			respond(x, 200, kmac.cryptographicHash(x.getRequestBody()));
+		}));
+		server.createContext("/mac", x -> handle(x, () -> {
+			respond(x, 200, kmac.authenticationTag(x.getRequestBody(), passphrase(x)));
+		}));
+		server.createContext("/encrypt", x -> handle(x, () -> {
+			byte[] pw = passphrase(x);
+			x.sendResponseHeaders(200, 0);
+			try(OutputStream out = x.getResponseBody()) {
+				kmac.encrypt(x.getRequestBody(), out, pw);
+			}
+		}));
+		server.createContext("/decrypt", x -> handle(x, () -> {
+			byte[] pw = passphrase(x);
+			decryptThroughSpool(x, (in, out) -> kmac.decrypt(in, out, pw));
+		}));
+		server.createContext("/ec/publickey", x -> handle(x, () -> {
+			respond(x, 200, privateKey(x).getPublicKey().toBytes());
+		}));
+		server.createContext("/ec/encrypt", x -> handle(x, () -> {
+			EcPublicKey V = publicKey(x);
+			x.sendResponseHeaders(200, 0);
+			try(OutputStream out = x.getResponseBody()) {
+				ec.encrypt(x.getRequestBody(), out, V);
+			}
+		}));
+		server.createContext("/ec/decrypt", x -> handle(x, () -> {
+			EcPrivateKey key = privateKey(x);
+			decryptThroughSpool(x, (in, out) -> ec.decrypt(in, out, key));
+		}));
+		server.createContext("/ec/sign", x -> handle(x, () -> {
+			respond(x, 200, ec.sigGenerator(privateKey(x), readAll(x.getRequestBody())));
+		}));
+		server.createContext("/ec/signfile", x -> handle(x, () -> {
+			respond(x, 200, ec.sigGeneratorPrehashed(privateKey(x), x.getRequestBody()));
+		}));
+		server.createContext("/ec/verify", x -> handle(x, () -> {
+			byte[][] sig = signature(x);
+			boolean valid = ec.verify(sig, readAll(x.getRequestBody()), publicKey(x));
+			respond(x, valid ? 200 : 400, (valid ? "valid\n" : "invalid\n").getBytes(StandardCharsets.UTF_8));
+		}));
+		server.createContext("/ec/verifyfile", x -> handle(x, () -> {
+			byte[][] sig = signature(x);
+			boolean valid = ec.verifyPrehashed(sig, x.getRequestBody(), publicKey(x));
+			respond(x, valid ? 200 : 400, (valid ? "valid\n" : "invalid\n").getBytes(StandardCharsets.UTF_8));
+		}));
+	}
+
+	/**
+	 * A virtual thread per request on Java 21 or later (looked up reflectively so this still
+	 * builds for older targets), otherwise a cached pool
+	 */
+	private static ExecutorService defaultExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	public void start() {
+		//a long running service is what the JMX metrics are for
+		CryptoMetrics.register();
+		server.start();
+	}
+
+	/**
+	 * The port actually bound, useful when constructed with port 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, waits up to delay seconds for running ones, then releases everything
+	 */
+	public void stop(int delay) {
+		server.stop(delay);
+		executor.shutdown();
+		pool.close();
+		stopped.countDown();
+	}
+
+	/**
+	 * Blocks until stop is called
+	 */
+	public void await() throws InterruptedException {
+		stopped.await();
+	}
+
+	/*Request plumbing*/
+
+	private interface Handler {
+		void run() throws IOException;
+	}
+
+	private interface Decryption {
+		boolean run(InputStream in, OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Only POST is served; a missing or malformed key header is a 400, anything else thrown a 500
+	 */
+	private static void handle(HttpExchange x, Handler h) {
+		try {
+			try {
+				if(!"POST".equalsIgnoreCase(x.getRequestMethod())) {
+					respond(x, 405, "POST only\n".getBytes(StandardCharsets.UTF_8));
+				}
+				else {
+					h.run();
+				}
+			}
+			catch(IOException | RuntimeException e) {
+				//once the status line has gone out the only thing left to do is drop the connection
+				if(x.getResponseCode() == -1) {
+					boolean badRequest = e instanceof IllegalArgumentException;
+					respond(x, badRequest ? 400 : 500, ((badRequest ? e.getMessage() : e.toString()) + "\n").getBytes(StandardCharsets.UTF_8));
+				}
+			}
+		}
+		catch(IOException e) {
+			//the client went away
+		}
+		finally {
+			x.close();
+		}
+	}
+
+	/**
+	 * Decrypts into memory or a temporary file (see the class comment) and only sends it once the tag has matched
+	 */
+	private static void decryptThroughSpool(HttpExchange x, Decryption d) throws IOException {
+		long length = contentLength(x);
+		if(length >= 0 && length <= MEMORY_SPOOL) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) length);
+			if(!d.run(x.getRequestBody(), out)) {
+				respond(x, 400, "Failed to decrypt\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			respond(x, 200, out.toByteArray());
+			return;
+		}
+		Path spool = createSpool();
+		try {
+			boolean valid;
+			try(OutputStream out = Files.newOutputStream(spool)) {
+				valid = d.run(x.getRequestBody(), out);
+			}
+			if(!valid) {
+				respond(x, 400, "Failed to decrypt\n".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			x.sendResponseHeaders(200, Files.size(spool) == 0 ? -1 : Files.size(spool));
+			try(OutputStream out = x.getResponseBody()) {
+				Files.copy(spool, out);
+			}
+		}
+		finally {
+			Files.delete(spool);
+		}
+	}
+
+	//readable and writable by the owner alone where the file system has POSIX permissions
+	private static Path createSpool() throws IOException {
+		if(FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			return Files.createTempFile("cryptoserver", ".part",
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		return Files.createTempFile("cryptoserver", ".part");
+	}
+
+	/**
+	 * The request's declared body length, -1 if it is chunked or the header is missing or malformed
+	 */
+	private static long contentLength(HttpExchange x) {
+		try {
+			String length = x.getRequestHeaders().getFirst("Content-Length");
+			return length == null ? -1 : Long.parseLong(length.trim());
+		}
+		catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void respond(HttpExchange x, int code, byte[] body) throws IOException {
+		x.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+		try(OutputStream out = x.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		byte[] buf = new byte[StreamCipher.BLOCK];
+		int n;
+		while((n = in.read(buf)) != -1) {
+			all.write(buf, 0, n);
+		}
+		return all.toByteArray();
+	}
+
+	private static byte[] header(HttpExchange x, String name) {
+		String value = x.getRequestHeaders().getFirst(name);
+		if(value == null) {
+			throw new IllegalArgumentException("Missing " + name + " header");
+		}
+		return Base64.getDecoder().decode(value.trim());
+	}
+
+	private static byte[] passphrase(HttpExchange x) {
+		return header(x, "X-Passphrase");
+	}
+
+	private static byte[][] signature(HttpExchange x) {
+		byte[] sig = header(x, "X-Signature");
+		if(sig.length != 130) {
+			throw new IllegalArgumentException("X-Signature must be 130 bytes");
+		}
+		return EcurveFunctions.splitSignature(sig);
+	}
+
+	private EcPrivateKey privateKey(HttpExchange x) {
+		byte[] pw = passphrase(x);
+		ByteBuffer id = ByteBuffer.wrap(digest.KMACXOF256(cacheKey, pw, 256, "PC"));
+		EcPrivateKey key = privateKeys.get(id);
+		if(key == null) {
+			if(privateKeys.size() >= KEY_CACHE_LIMIT) {
+				privateKeys.clear();
+			}
+			key = ec.deriveKey(pw);
+			privateKeys.put(id, key);
+		}
+		Arrays.fill(pw, (byte) 0);
+		return key;
+	}
+
+	private EcPublicKey publicKey(HttpExchange x) {
+		String encoded = x.getRequestHeaders().getFirst("X-Public-Key");
+		EcPublicKey V = encoded == null ? null : publicKeys.get(encoded);
+		if(V == null) {
+			V = EcPublicKey.fromBytes(header(x, "X-Public-Key"));
+			if(publicKeys.size() >= KEY_CACHE_LIMIT) {
+				publicKeys.clear();
+			}
+			publicKeys.put(encoded, V);
+		}
+		return V;
+	}
+}
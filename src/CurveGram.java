@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * This special class is used to return a cryptogram of mixed types(Ecurve and byte arrays)
  * when encrypting
@@ -16,7 +18,7 @@ public class CurveGram {
 	}
 	
 	public byte[] toArray(){
-		return concat(Z.toBytes(), concat(c, t));
+		return toBytes();
 	}
 	
 	public static byte[] concat(byte[] a, byte[] b) {
@@ -28,9 +30,22 @@ public class CurveGram {
 
 	/**
 	 * Transforms this cryptogram into a byte array to be printed to a file
+	 * Z is written compressed (see Ecurve.toCompressedBytes)
 	 * @return
 	 */
 	public byte[] toBytes() {
-		return concat(Z.toBytes(), concat(c,t));
+		return concat(Z.toCompressedBytes(), concat(c,t));
+	}
+	
+	/**
+	 * Parses a cryptogram written by toBytes: Z || c || t, with a 64 byte t
+	 * @param gram the bytes
+	 * @return the cryptogram (Z,c,t)
+	 */
+	public static CurveGram fromBytes(byte[] gram) {
+		Ecurve Z = Ecurve.fromCompressed(gram, 0);
+		byte[] c = Arrays.copyOfRange(gram, Ecurve.COMPRESSED_LENGTH, gram.length - 64);
+		byte[] t = Arrays.copyOfRange(gram, gram.length - 64, gram.length);
+		return new CurveGram(Z, c, t);
 	}	
 }
@@ -0,0 +1,28 @@
+import java.math.BigInteger;
+
+/**
+ * The fixed parameters of the E521 curve, computed once.
+ * x^2 + y^2 = 1 + dx^2y^2 over GF(p)
+ *
+ * @author Andrew Josten
+ */
+public final class CurveParameters {
+	private CurveParameters() {}
+
+	/**
+	 * Mersenne prime p = 2^521 - 1
+	 */
+	public static final BigInteger P = BigInteger.ONE.shiftLeft(521).subtract(BigInteger.ONE);
+
+	/**
+	 * d = -376014
+	 */
+	public static final BigInteger D = BigInteger.valueOf(-376014);
+
+	/**
+	 * r = 2^519 - R_OFFSET, the order of G (the number of points is 4r)
+	 */
+	public static final int R_BITS = 519;
+	public static final BigInteger R_OFFSET = new BigInteger("337554763258501705789107630418782636071904961214051226618635150085779108655765");
+	public static final BigInteger R = BigInteger.ONE.shiftLeft(R_BITS).subtract(R_OFFSET);
+}
@@ -0,0 +1,34 @@
+import java.math.BigInteger;
+
+/**
+ * Immutable handle for a private key: the scalar s derived from a passphrase,
+ * and its public key V = s*G. Create one with EcurveFunctions.deriveKey and reuse it,
+ * so repeated decrypt and sign calls skip the KMACXOF256 derivation of s.
+ *
+ * @author Andrew Josten
+ */
+public final class EcPrivateKey {
+	private final BigInteger s;
+	//V = s*G, only computed when first asked for
+	private volatile EcPublicKey publicKey;
+
+	public EcPrivateKey(BigInteger s) {
+		this.s = s;
+	}
+
+	public BigInteger getS() {
+		return s;
+	}
+
+	/**
+	 * Gets the matching public key V <- s*G
+	 */
+	public EcPublicKey getPublicKey() {
+		EcPublicKey pub = publicKey;
+		if(pub == null) {
+			pub = new EcPublicKey(EcurveFunctions.G.exponentiation(s));
+			publicKey = pub;
+		}
+		return pub;
+	}
+}
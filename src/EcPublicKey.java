@@ -0,0 +1,63 @@
+import java.math.BigInteger;
+
+/**
+ * Immutable handle for a public key V, holding its compressed encoding and optionally
+ * its own precomputed PointTable. Safe to share between threads.
+ *
+ * @author Andrew Josten
+ */
+public final class EcPublicKey {
+	private final Ecurve V;
+	private final byte[] encoded;
+	private final byte[] fingerprint;
+	private final PointTable table;//null if not precomputed
+
+	public EcPublicKey(Ecurve V) {
+		this(V, null);
+	}
+
+	/**
+	 * A handle with a table built elsewhere (e.g. loaded by Keyring)
+	 */
+	EcPublicKey(Ecurve V, PointTable table) {
+		this.V = V;
+		this.encoded = V.toCompressedBytes();
+		this.fingerprint = new KMAC().KMACXOF256(new byte[] {}, encoded, 256, "FP");
+		this.table = table;
+	}
+
+	/**
+	 * Reads a public key from its compressed encoding
+	 */
+	public static EcPublicKey fromBytes(byte[] b) {
+		return new EcPublicKey(Ecurve.fromCompressed(b, 0));
+	}
+
+	/**
+	 * Returns a handle for the same key that carries its own table,
+	 * for keys that are encrypted to or verified against many times
+	 */
+	public EcPublicKey withTable() {
+		return table != null ? this : new EcPublicKey(V, new PointTable(V));
+	}
+
+	/**
+	 * Computes k*V, from this handle's table if it has one,
+	 * otherwise through the shared PublicKeyTableCache
+	 */
+	public Ecurve exponentiation(BigInteger k) {
+		if(table != null) {
+			return table.exponentiation(k);
+		}
+		return EcurveFunctions.getTableCache().exponentiation(V, k);
+	}
+
+	public Ecurve getV() {return V;}
+	public PointTable getTable() {return table;}
+	public byte[] toBytes() {return encoded.clone();}
+	
+	/**
+	 * Short identifier of this key: KMACXOF256("", V, 256, "FP") over the compressed V
+	 */
+	public byte[] fingerprint() {return fingerprint.clone();}
+}
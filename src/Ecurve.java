@@ -12,9 +12,16 @@ public class Ecurve {
 	private BigInteger Y;
 	
 	//Mersenne prime
-	private final static BigInteger MersenneP = BigInteger.valueOf(2L).pow(521).subtract(BigInteger.ONE);
+	final static BigInteger MersenneP = CurveParameters.P;
 	//d = -376014
-	private final BigInteger d = BigInteger.valueOf(-376014);
+	final static BigInteger d = CurveParameters.D;
+	//(p-3)/4 = 2^519 - 1, fixed exponent used when decompressing points
+	private final static BigInteger DecompressExp = MersenneP.shiftRight(2);
+	
+	/**
+	 * Length of a compressed point: x in big-endian plus the parity of y in a spare bit of the first byte
+	 */
+	public final static int COMPRESSED_LENGTH = MersenneP.toByteArray().length;
 	
 	/*Various constructors*/
 	/**
@@ -40,15 +47,37 @@ public class Ecurve {
 	public Ecurve(BigInteger a, boolean lsb) {
 		X = a;
 		
-		BigInteger numerator = BigInteger.ONE.subtract(a.pow(2));
-        BigInteger denominator = BigInteger.ONE.subtract(d.multiply(a.pow(2)));
-        
-        BigInteger sqrt = sqrt(numerator.multiply(denominator.modInverse(MersenneP)), MersenneP, lsb);
-        if (sqrt == null) {//if return null, we fail
+		BigInteger y = recoverY(a, lsb);
+        if (y == null) {//if return null, we fail
         	throw new IllegalArgumentException();
         }
 
-        Y = sqrt.mod(MersenneP);
+        Y = y.mod(MersenneP);
+	}
+	
+	/**
+	 * Solves the curve equation for y: y = sqrt(u/v) with u = 1 - x^2, v = 1 - dx^2.
+	 * Since p = 3 (mod 4), sqrt(u/v) = u^3 * v * (u^5 * v^3)^((p-3)/4), which folds the
+	 * division into the fixed exponentiation instead of a modInverse followed by sqrt().
+	 * @return y with the requested least significant bit, or null if x is not on the curve
+	 */
+	private static BigInteger recoverY(BigInteger x, boolean lsb) {
+		BigInteger x2 = x.multiply(x).mod(MersenneP);
+		BigInteger u = BigInteger.ONE.subtract(x2).mod(MersenneP);
+		BigInteger v = BigInteger.ONE.subtract(d.multiply(x2)).mod(MersenneP);
+		if(u.signum() == 0) {
+			return BigInteger.ZERO;
+		}
+		
+		BigInteger u2 = u.multiply(u).mod(MersenneP);
+		BigInteger u3v = u2.multiply(u).mod(MersenneP).multiply(v).mod(MersenneP);
+		BigInteger u5v3 = u3v.multiply(u2).mod(MersenneP).multiply(v.multiply(v)).mod(MersenneP);
+		BigInteger r = u3v.multiply(u5v3.modPow(DecompressExp, MersenneP)).mod(MersenneP);
+		if(r.testBit(0) != lsb) {
+			r = MersenneP.subtract(r); // correct the lsb
+		}
+		//check v*r^2 = u, otherwise u/v has no square root
+		return (v.multiply(r).multiply(r).subtract(u).mod(MersenneP).signum() == 0) ? r : null;
 	}
 	
 	/**
@@ -121,27 +150,78 @@ public class Ecurve {
 		BigInteger numY = this.Y.multiply(a.Y).subtract(this.X.multiply(a.X)).mod(MersenneP);
 		
 		//use mod inverse to divide
+		CryptoMetrics.inversions.add(2);
 		return new Ecurve(numX.multiply(denomX.modInverse(MersenneP)).mod(MersenneP), numY.multiply(denomY.modInverse(MersenneP)).mod(MersenneP));
 	}	
 	
 	/**
 	 * Multiply by scalar/exponentiation algorithm
+	 * The double-and-add loop runs in projective coords, so only the final result pays a modInverse
 	 */
 	public Ecurve exponentiation(BigInteger s) {
+		return projectiveExponentiation(s).toAffine();
+	}
+	
+	/**
+	 * Multiplies this point by many scalars at once.
+	 * All results are normalized together with one modInverse (see ProjectivePoint.batchNormalize)
+	 * @param s the scalars
+	 * @return s[i]*this for each i
+	 */
+	public Ecurve[] exponentiation(BigInteger[] s) {
+		ProjectivePoint[] V = new ProjectivePoint[s.length];
+		for(int i = 0; i < s.length; i++) {
+			V[i] = projectiveExponentiation(s[i]);
+		}
+		return ProjectivePoint.batchNormalize(V);
+	}
+	
+	private ProjectivePoint projectiveExponentiation(BigInteger s) {
+		CryptoMetrics.scalarMultiplications.increment();
+		ScalarMultiplicationEvent event = ScalarMultiplicationEvent.start();
 		int k = s.bitLength();
-		//Ecurve V = new Ecurve(this.X, this.Y); //this wasn't working correctly
-		Ecurve V = new Ecurve(BigInteger.ZERO, BigInteger.ONE);//initialize V so that its the neutral point, 0,1
+		ProjectivePoint V = new ProjectivePoint();//initialize V so that its the neutral point, 0,1
 		
 		for(int i = k-1; i >= 0 ; i--) {
-			V = V.sum(V);
+			V = V.twice();
 			if(s.testBit(i)){
 				V = V.sum(this);
 			}
 		}
 		
+		event.finish("double-and-add", k);
 		return V;
 	}
 	
+	/**
+	 * Computes s*this + t*Q with one shared double-and-add loop (Shamir's trick)
+	 * Both scalars are scanned together, so the doublings are only paid once
+	 */
+	public Ecurve exponentiationSum(BigInteger s, Ecurve Q, BigInteger t) {
+		CryptoMetrics.scalarMultiplications.add(2);
+		ScalarMultiplicationEvent event = ScalarMultiplicationEvent.start();
+		int k = Math.max(s.bitLength(), t.bitLength());
+		Ecurve both = this.sum(Q);//added when both bits are set
+		ProjectivePoint V = new ProjectivePoint();
+		
+		for(int i = k-1; i >= 0; i--) {
+			V = V.twice();
+			if(s.testBit(i) && t.testBit(i)) {
+				V = V.sum(both);
+			}
+			else if(s.testBit(i)) {
+				V = V.sum(this);
+			}
+			else if(t.testBit(i)) {
+				V = V.sum(Q);
+			}
+		}
+		
+		Ecurve R = V.toAffine();
+		event.finish("shamir", k);
+		return R;
+	}
+	
 	public BigInteger getX() {
 		return X;
 	}
@@ -149,6 +229,18 @@ public class Ecurve {
 		return Y;
 	}
 
+	/**
+	 * True if 0 <= x, y < p and x^2 + y^2 = 1 + d*x^2*y^2 (mod p), for points read from files
+	 */
+	boolean isOnCurve() {
+		if(X.signum() < 0 || Y.signum() < 0 || X.compareTo(MersenneP) >= 0 || Y.compareTo(MersenneP) >= 0) {
+			return false;
+		}
+		BigInteger x2 = X.multiply(X).mod(MersenneP);
+		BigInteger y2 = Y.multiply(Y).mod(MersenneP);
+		return x2.add(y2).mod(MersenneP).equals(BigInteger.ONE.add(d.multiply(x2).multiply(y2)).mod(MersenneP));
+	}
+
 	/**
 	 * Used to return a point as bytes
 	 * @return
@@ -171,6 +263,35 @@ public class Ecurve {
         return r;
 	}
 
+	/**
+	 * Returns the point in compressed form (COMPRESSED_LENGTH bytes):
+	 * x as a big-endian unsigned number, with the lsb of y stored in bit 1 of the first byte.
+	 * x < 2^521 only uses bit 0 of the first byte, so the parity bit is free.
+	 */
+	public byte[] toCompressedBytes() {
+		byte[] x = X.mod(MersenneP).toByteArray();
+		byte[] r = new byte[COMPRESSED_LENGTH];
+		int len = Math.min(x.length, r.length);//drops a leading sign byte if present
+		System.arraycopy(x, x.length - len, r, r.length - len, len);
+		if(Y.mod(MersenneP).testBit(0)) {
+			r[0] |= 0x02;
+		}
+		return r;
+	}
+	
+	/**
+	 * Decompresses a point written by toCompressedBytes
+	 * @param z the bytes
+	 * @param off where the COMPRESSED_LENGTH bytes of the point start
+	 * @throws IllegalArgumentException if the bytes do not encode a curve point
+	 */
+	public static Ecurve fromCompressed(byte[] z, int off) {
+		byte[] x = Arrays.copyOfRange(z, off, off + COMPRESSED_LENGTH);
+		boolean lsb = (x[0] & 0x02) != 0;
+		x[0] &= 0x01;
+		return new Ecurve(new BigInteger(1, x), lsb);
+	}
+	
 	/**
 	 * Undoes a byte array by translating it into an ecurve
 	 * @param z
@@ -1,6 +1,9 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * Generate an elliptic key pair from a given passphrase and write the public key to a file.
@@ -14,7 +17,17 @@ import java.util.Arrays;
 public class EcurveFunctions {
 	KMAC kmac;
 	//The public generator, (4, some unique even number)
-	private static final Ecurve G = new Ecurve(BigInteger.valueOf(4L), false);
+	static final Ecurve G = new Ecurve(BigInteger.valueOf(4L), false);
+	
+	/**
+	 * Precomputed tables for recipients that are encrypted to repeatedly
+	 */
+	private static final PublicKeyTableCache tables = new PublicKeyTableCache(64);
+	
+	/**
+	 * Optional source of precomputed (k, k*G) pairs for encrypt
+	 */
+	private EphemeralPool pool;
 	
 	//The keys
 	/**
@@ -27,6 +40,11 @@ public class EcurveFunctions {
 	 */
 	private Ecurve V;
 	
+	/**
+	 * Handle for (s,V), reused by encrypt
+	 */
+	private EcPrivateKey key;
+	
 	public EcurveFunctions(){
 		kmac = new KMAC();		
 	}
@@ -43,19 +61,46 @@ public class EcurveFunctions {
 		s = null;
 		V = null;
 		
-		byte[] scalarHash = kmac.KMACXOF256(pw, new byte[] {}, 512, "K");
-		//Using the concat here to avoid negative bigint.		
-		BigInteger bigS = new BigInteger(concat(new byte[] {0},scalarHash));
-		bigS = bigS.multiply(BigInteger.valueOf(4L)); //s <- 4s
-		Ecurve pointV = G.exponentiation(bigS);//V<-s*G	
+		key = deriveKey(pw);
+		Ecurve pointV = key.getPublicKey().getV();//V<-s*G	
 		//The key pair is (s,V)
-		s = bigS;
+		s = key.getS();
 		V = pointV;		
 	}
+	
+	/**
+	 * Derives the private key handle for passphrase pw
+	 * s<-KMACXOF256(pw,"", 512, "K"); s<-4s
+	 * V<-s*G is only computed if the handle's public key is asked for
+	 * 
+	 * @param pw the password
+	 * @return a reusable handle for s
+	 */
+	public EcPrivateKey deriveKey(byte[] pw) {
+		byte[] scalarHash = kmac.KMACXOF256(pw, new byte[] {}, 512, "K");
+		//Using the concat here to avoid negative bigint.		
+		BigInteger bigS = ScalarField.times4(scalarHash); //s <- 4s
+		return new EcPrivateKey(bigS);
+	}
 
 	public BigInteger getS() {return s;}
 	public Ecurve getV() {return V;}
+	public EcPrivateKey getKey() {return key;}
 	public Ecurve getG(){return G;}
+	public static PublicKeyTableCache getTableCache() {return tables;}
+	public void setEphemeralPool(EphemeralPool pool) {this.pool = pool;}
+	
+	/**
+	 * Gets the fixed-base table for G, built on first use
+	 */
+	public static PointTable getGeneratorTable() {
+		return GeneratorTable.TABLE;
+	}
+	
+	//Holder class so the table is only built when it is first needed
+	private static class GeneratorTable {
+		static final PointTable TABLE = new PointTable(G);
+	}
 	
 	/**
 	 * Encrypting a byte array m under the (Schnorr/ECDHIES) public key V:
@@ -63,22 +108,29 @@ public class EcurveFunctions {
 	 * @return A special tuple-like object called CurveGram (Z,c,t)
 	 */
 	public CurveGram encrypt(byte[] m){
-		//k <- Random(512)
-		SecureRandom sr = new SecureRandom();
-        byte[] rand = new byte[65];//spare byte to ensure postive bigint. This is necessary for the process to work
-        sr.nextBytes(rand);
-        rand[0] = 0; //no negatives
-        byte [] k = rand;
-
-        //k<-4k
-        BigInteger bigK = new BigInteger(k);
-        bigK = bigK.multiply(BigInteger.valueOf(4L));
-        
+		return encrypt(m, key.getPublicKey());
+	}
+	
+	/**
+	 * Encrypting a byte array m under the public key handle V
+	 * @param m the message
+	 * @param V the recipient's public key
+	 * @return the cryptogram (Z,c,t)
+	 */
+	public CurveGram encrypt(byte[] m, EcPublicKey V){
+		CryptoEvent event = CryptoEvent.start();
+		EphemeralPool.Pair pair = ephemeral();
         //W<-k*V
-        Ecurve W = this.V.exponentiation(bigK);
-        //Z <- k*G
-        Ecurve Z = G.exponentiation(bigK);
-        
+        CurveGram gram = seal(pair.Z, V.exponentiation(pair.k), m);
+        CryptoMetrics.record(CryptoMetrics.Op.ECENCRYPT, event, m.length, Ecurve.COMPRESSED_LENGTH + m.length + 64);
+        return gram;
+	}
+	
+	/**
+	 * Second half of encrypt, once Z = k*G and W = k*V are known
+	 * @return the cryptogram (Z,c,t)
+	 */
+	CurveGram seal(Ecurve Z, Ecurve W, byte[] m) {
         //ke||ka KMACXOF256(Wx "", 1024, "S")
         byte[] keka = kmac.KMACXOF256(W.getX().toByteArray(), new byte[] {}, 1024, "P");
         byte[] ke = Arrays.copyOfRange(keka, 0, 64);
@@ -98,6 +150,145 @@ public class EcurveFunctions {
         return new CurveGram(Z, xorC, t);
 	}
 	
+	/**
+	 * Streaming encryption under public key V, for messages too large to hold in memory.
+	 * Writes Z first, then c a block at a time, then t, in the same layout as CurveGram.toBytes
+	 * @param in the message m, read to its end (not closed)
+	 * @param out receives Z || c || t (not closed)
+	 * @param V the recipient's public key
+	 */
+	public void encrypt(InputStream in, OutputStream out, EcPublicKey V) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		EphemeralPool.Pair pair = ephemeral();
+		//W<-k*V
+		Ecurve W = V.exponentiation(pair.k);
+		
+		KMACStream[] streams = curveStreams(W);
+		
+		out.write(pair.Z.toCompressedBytes());
+		
+		//c <- KMACXOF256(ke, "", |m|, "PKE") xor m; t<-KMACXOF256(ka, m, 512, "PKA")
+		long n = StreamCipher.seal(in, out, streams[0], streams[1]);
+		CryptoMetrics.record(CryptoMetrics.Op.ECENCRYPT, event, n, Ecurve.COMPRESSED_LENGTH + n + 64);
+	}
+	
+	/**
+	 * Streaming decryption of Z || c || t under private key s.
+	 * The message is written out as it is decrypted, before t can be checked,
+	 * so the caller must throw the output away if this returns false.
+	 * @param in the cryptogram, read to its end (not closed)
+	 * @param out receives m (not closed)
+	 * @param key the private key s
+	 * @return true if the tag t matched
+	 */
+	public boolean decrypt(InputStream in, OutputStream out, EcPrivateKey key) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		//recorded however it ends, as in KmacFunctions.decrypt
+		try {
+			byte[] z = new byte[Ecurve.COMPRESSED_LENGTH];
+			if(StreamCipher.readFully(in, z, 0, z.length) < z.length) {
+				return false;
+			}
+			//W <- s*Z
+			Ecurve W = Ecurve.fromCompressed(z, 0).exponentiation(key.getS());
+			
+			KMACStream[] streams = curveStreams(W);
+			
+			//m <- KMACXOF256(ke, "", |c|, "PKE") xor c; t'<-KMACXOF256(ka, m, 512, "PKA")
+			return StreamCipher.open(in, out, streams[0], streams[1]);
+		}
+		finally {
+			CryptoMetrics.record(CryptoMetrics.Op.ECDECRYPT, event, -1, -1);
+		}
+	}
+	
+	/**
+	 * ke||ka <- KMACXOF256(Wx, "", 1024, "P")
+	 * @return {keystream KMACXOF256(ke, "", *, "PKE"), tag KMACXOF256(ka, *, 512, "PKA")}
+	 */
+	KMACStream[] curveStreams(Ecurve W) {
+		byte[] keka = kmac.KMACXOF256(W.getX().toByteArray(), new byte[] {}, 1024, "P");
+		return new KMACStream[] {new KMACStream(Arrays.copyOfRange(keka, 0, 64), "PKE"),
+				new KMACStream(Arrays.copyOfRange(keka, 64, 128), "PKA")};
+	}
+	
+	/**
+	 * Encrypts m once for several recipients.
+	 * m is encrypted and tagged a single time under a random content key K (KmacFunctions.encrypt),
+	 * then K alone is encrypted under each recipient's V. The per recipient wraps run in parallel,
+	 * so the cost is one pass over m plus one scalar multiplication pair per recipient.
+	 * @param m the message
+	 * @param recipients the recipients' public keys
+	 * @return the multi recipient cryptogram
+	 */
+	public MultiGram encrypt(byte[] m, EcPublicKey[] recipients) {
+		//K <- Random(512)
+		byte[] contentKey = new byte[64];
+		KmacDrbg.current().nextBytes(contentKey);
+		
+		byte[][] fingerprints = new byte[recipients.length][];
+		CurveGram[] wraps = new CurveGram[recipients.length];
+		IntStream.range(0, recipients.length).parallel().forEach(i -> {
+			fingerprints[i] = recipients[i].fingerprint();
+			wraps[i] = encrypt(contentKey, recipients[i]);
+		});
+		
+		byte[] payload = new KmacFunctions().encrypt(m, contentKey);
+		Arrays.fill(contentKey, (byte) 0);
+		return new MultiGram(fingerprints, wraps, payload);
+	}
+	
+	/**
+	 * Decrypts a multi recipient cryptogram with one recipient's private key
+	 * @param r the cryptogram
+	 * @param key the recipient's private key s
+	 * @return message in bytes if decrpytion is successful
+	 */
+	public byte[] decrypt(MultiGram r, EcPrivateKey key) {
+		CurveGram wrap = r.wrapFor(key.getPublicKey().fingerprint());
+		if(wrap == null) {
+			System.out.println("Failed to decrypt: not a recipient");
+			return new byte[] {};
+		}
+		byte[] contentKey = decrypt(wrap, key);
+		if(contentKey.length != 64) {
+			return new byte[] {};
+		}
+		return new KmacFunctions().decrypt(r.payload, contentKey);
+	}
+	
+	/**
+	 * Gets an ephemeral key (k, Z = k*G), from the pool if there is one
+	 */
+	EphemeralPool.Pair ephemeral() {
+		EphemeralPool.Pair pair = pooledEphemeral();
+		if(pair != null) {
+			//k and Z <- k*G were precomputed, this pair is now spent
+			return pair;
+		}
+		
+		BigInteger bigK = randomScalar();
+        //Z <- k*G
+        return new EphemeralPool.Pair(bigK, G.exponentiation(bigK));
+	}
+	
+	/**
+	 * Takes a precomputed (k, Z) from the pool
+	 * @return the pair, or null if there is no pool or it is empty
+	 */
+	EphemeralPool.Pair pooledEphemeral() {
+		return pool == null ? null : pool.poll();
+	}
+	
+	/**
+	 * k <- Random(512); k <- 4k
+	 */
+	static BigInteger randomScalar() {
+		byte[] k = new byte[64];
+		KmacDrbg.current().nextBytes(k);
+		return ScalarField.times4(k);
+	}
+	
 	/**
 	 * Decrypts a given ecurve encryption under password pw
 	 * @param r the Curvegram (Z,c,t)
@@ -105,16 +296,20 @@ public class EcurveFunctions {
 	 * @return message in bytes if decrpytion is successful
 	 */
 	public byte[] decrypt(CurveGram r, byte[] pw) {		
-		//s <- KMACXOF256(pw, "", 512, "K")
-		byte[] tempS = kmac.KMACXOF256(pw, new byte[] {}, 512, "K");
-		tempS = concat(new byte[] {0}, tempS);//ensure postive bigint
-		//s<-4s
-		BigInteger bigS = new BigInteger(tempS);
-        bigS = bigS.multiply(BigInteger.valueOf(4L));
-		//this is essentailly the private key, s
-		
+		//s <- KMACXOF256(pw, "", 512, "K"); s<-4s
+		return decrypt(r, deriveKey(pw));
+	}
+	
+	/**
+	 * Decrypts a given ecurve encryption under a private key handle
+	 * @param r the Curvegram (Z,c,t)
+	 * @param key the private key s
+	 * @return message in bytes if decrpytion is successful
+	 */
+	public byte[] decrypt(CurveGram r, EcPrivateKey key) {
+		CryptoEvent event = CryptoEvent.start();
 		//W <- s*Z
-		Ecurve W = r.Z.exponentiation(s);
+		Ecurve W = r.Z.exponentiation(key.getS());
 		
 		//ke||ka KMACXOF256(Wx, "", 1024, "S")
         byte[] keka = kmac.KMACXOF256(W.getX().toByteArray(), new byte[] {}, 1024, "P");
@@ -131,6 +326,7 @@ public class EcurveFunctions {
 
         //t'<-KMACXOF256(ka, m, 512, "PKA")
         byte tPrime[] = kmac.KMACXOF256(ka, xorM, 512, "PKA");
+        CryptoMetrics.record(CryptoMetrics.Op.ECDECRYPT, event, Ecurve.COMPRESSED_LENGTH + c.length + 64, xorM.length);
                 
         if(Arrays.equals(tPrime, r.t)){
         	return xorM;
@@ -148,22 +344,26 @@ public class EcurveFunctions {
 	 * @return
 	 */
 	public byte[] sigGenerator(byte[] pw, byte[] m) {
-		//this part essentially the keyPair/*		
-		//s <- KMACXOF256(pw, "", 512, "K")
-		byte[] tempS = kmac.KMACXOF256(pw, new byte[] {}, 512, "K");
-		tempS = concat(new byte[] {0}, tempS);//ensure postive bigint
-		
-		//s<-4s
-		BigInteger bigS = new BigInteger(tempS);
-        bigS = bigS.multiply(BigInteger.valueOf(4L));
+		//this part essentially the keyPair
+		//s <- KMACXOF256(pw, "", 512, "K"); s<-4s
+		return sigGenerator(deriveKey(pw), m);
+	}
+	
+	/**
+	 * Generates a signature on m under a private key handle
+	 * @param key the private key s
+	 * @param m the message
+	 * @return the 130 byte signature (h,z)
+	 */
+	public byte[] sigGenerator(EcPrivateKey key, byte[] m) {
+		CryptoEvent event = CryptoEvent.start();
+		BigInteger bigS = key.getS();
 
         //k <- KMACXOF256(pw, m, 512, "N")
   		byte[] k = kmac.KMACXOF256(bigS.toByteArray(), m, 512, "N");
-  		k = concat(new byte[] {0}, k);//ensure postive bigint
   		  		
   		//k<-4k
-  		BigInteger bigK = new BigInteger(k);
-  		bigK = bigK.multiply(BigInteger.valueOf(4L));
+  		BigInteger bigK = ScalarField.times4(k);
   		Ecurve U = G.exponentiation(bigK);//U <- k*G
   		
   		//h<-KMACXOF256(Ux, m, 512, "T"); 
@@ -171,13 +371,8 @@ public class EcurveFunctions {
   		h = concat(new byte[] {0}, h);//ensure postive bigint
   		BigInteger bigH = new BigInteger(h);  		
   		
-  		//r = number of points on e-curve
-  		//r = 2^519 - 33755...
-  		BigInteger b = new BigInteger("337554763258501705789107630418782636071904961214051226618635150085779108655765");
-  		BigInteger r = BigInteger.valueOf(2L).pow(519).subtract(b);
-  		
-  		//z<-(khs) mod r
-  		byte[] z = ((bigK.subtract(bigH.multiply(bigS))).mod(r)).toByteArray();
+  		//z<-(khs) mod r, r = 2^519 - 33755... (see ScalarField)
+  		byte[] z = ScalarField.subtract(bigK, ScalarField.multiply(bigH, bigS)).toByteArray();
   		BigInteger bigZ = new BigInteger(z);
   		
   		//corrections for signs
@@ -191,6 +386,7 @@ public class EcurveFunctions {
   		System.arraycopy(h, 0, ret, 130/2 - h.length, h.length);
         System.arraycopy(z, 0, ret, 130-z.length, z.length);
   		
+  		CryptoMetrics.record(CryptoMetrics.Op.SIGN, event, m.length, ret.length);
   		return ret;
 	}	
 	
@@ -200,14 +396,35 @@ public class EcurveFunctions {
 	 * @param m
 	 * @return
 	 */
-	public boolean verify(byte[][] sig, byte[] m) {			
+	public boolean verify(byte[][] sig, byte[] m) {
+		return verify(sig, m, V);
+	}
+	
+	/**
+	 * Verifies a signature (h,z) on m under an explicit public key V
+	 * U <- z*G + h*V, accept iff KMACXOF256(Ux, m, 512, "T") = h
+	 * @param sig the signature split into {h, z}
+	 * @param m the signed message
+	 * @param V the signer's public key
+	 * @return true if the signature is valid
+	 */
+	public boolean verify(byte[][] sig, byte[] m, Ecurve V) {
+		CryptoEvent event = CryptoEvent.start();
 		BigInteger z = new BigInteger(sig[1]);
 		BigInteger h = new BigInteger(sig[0]);
 		
-		Ecurve temp1 = G.exponentiation(z);
-		Ecurve temp2 = V.exponentiation(h);
-		Ecurve U = temp1.sum(temp2);
-		
+		//U <- z*G + h*V, sharing the doublings of both multiplications
+		Ecurve U = G.exponentiationSum(z, V, h);
+		boolean valid = checkCommitment(U, sig, m);
+		CryptoMetrics.record(CryptoMetrics.Op.VERIFY, event, m.length, 0);
+		return valid;
+	}
+	
+	/**
+	 * Last step of verify, once U = z*G + h*V is known
+	 * @return true iff KMACXOF256(Ux, m, 512, "T") = h
+	 */
+	boolean checkCommitment(Ecurve U, byte[][] sig, byte[] m) {
 		byte[] hPrime = kmac.KMACXOF256(U.getX().toByteArray(), m, 512, "T");
 		hPrime = concat(new byte[] {0}, hPrime);//ensure postive bigint
 		
@@ -219,6 +436,56 @@ public class EcurveFunctions {
 		}
 	}
 	
+	/**
+	 * Verifies a signature (h,z) on m under a public key handle
+	 */
+	public boolean verify(byte[][] sig, byte[] m, EcPublicKey V) {
+		return verify(sig, m, V.getV());
+	}
+	
+	/**
+	 * Prehash mode: hashes a stream once, in constant memory, for signing large files
+	 * d <- KMACXOF256("", m, 512, "PH")
+	 * @param in the message, read to its end (not closed)
+	 * @return the 64 byte digest d
+	 */
+	public byte[] prehash(InputStream in) throws IOException {
+		return StreamCipher.absorb(new KMACStream(new byte[] {}, "PH"), in).digest(512);
+	}
+	
+	/**
+	 * Signs a stream in prehash mode: the signature is on d = prehash(m) instead of m
+	 * @param key the private key s
+	 * @param in the message
+	 * @return the 130 byte signature (h,z) of d
+	 */
+	public byte[] sigGeneratorPrehashed(EcPrivateKey key, InputStream in) throws IOException {
+		return sigGenerator(key, prehash(in));
+	}
+	
+	/**
+	 * Verifies a prehash mode signature on a stream
+	 * @param sig the signature split into {h, z}
+	 * @param in the message
+	 * @param V the signer's public key
+	 * @return true if the signature is valid
+	 */
+	public boolean verifyPrehashed(byte[][] sig, InputStream in, EcPublicKey V) throws IOException {
+		return verify(sig, prehash(in), V);
+	}
+	
+	/**
+	 * Splits a 130 byte signature as written by sigGenerator into {h, z}
+	 * @param sig the signature bytes
+	 * @return a 2d byte array: (h,z)
+	 */
+	public static byte[][] splitSignature(byte[] sig) {
+		byte[][] hz = new byte[2][];
+		hz[0] = Arrays.copyOfRange(sig, 0, 130/2);
+		hz[1] = Arrays.copyOfRange(sig, 130/2, 130);
+		return hz;
+	}
+	
 	public static byte[] concat(byte[] a, byte[] b) {
 		byte[] c = new byte[a.length + b.length];
 		System.arraycopy(a, 0, c, 0, a.length);
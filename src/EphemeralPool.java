@@ -0,0 +1,93 @@
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of fresh ephemeral pairs (k, Z = k*G) for ECDHIES encryption, kept full by a
+ * low priority background thread. Each pair is handed out exactly once and then forgotten,
+ * so encrypt only has to compute W = k*V in the foreground.
+ *
+ * @author Andrew Josten
+ */
+public class EphemeralPool {
+	//Pairs are made a few at a time so their Z's can share one modInverse
+	private static final int BATCH = 8;
+
+	/**
+	 * One ephemeral key: the scalar k (already multiplied by 4) and Z = k*G
+	 */
+	public static final class Pair {
+		public final BigInteger k;
+		public final Ecurve Z;
+
+		Pair(BigInteger k, Ecurve Z) {
+			this.k = k;
+			this.Z = Z;
+		}
+	}
+
+	private final BlockingQueue<Pair> pairs;
+	private final Thread filler;
+
+	/**
+	 * Starts the pool and its background filler
+	 * @param size the number of pairs to keep ready
+	 */
+	public EphemeralPool(int size) {
+		if(size < 1) {
+			throw new IllegalArgumentException("Pool size must be positive");
+		}
+		pairs = new ArrayBlockingQueue<Pair>(size);
+		filler = new Thread(this::fill, "EphemeralPool filler");
+		filler.setDaemon(true);
+		filler.setPriority(Thread.MIN_PRIORITY);
+		filler.start();
+	}
+
+	/**
+	 * Takes a pair out of the pool. The pair is never given out again.
+	 * @return a pair, or null if the pool is empty right now
+	 */
+	public Pair poll() {
+		return pairs.poll();
+	}
+
+	/**
+	 * Number of pairs ready to be taken
+	 */
+	public int available() {
+		return pairs.size();
+	}
+
+	/**
+	 * Stops the background filler and drops every pair that has not been used
+	 */
+	public void close() {
+		filler.interrupt();
+		pairs.clear();
+	}
+
+	private void fill() {
+		KmacDrbg sr = KmacDrbg.current();
+		PointTable gTable = EcurveFunctions.getGeneratorTable();
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				BigInteger[] k = new BigInteger[BATCH];
+				for(int i = 0; i < BATCH; i++) {
+					//k <- Random(512); k <- 4k
+					byte[] rand = new byte[64];
+					sr.nextBytes(rand);
+					k[i] = ScalarField.times4(rand);
+				}
+				//Z <- k*G
+				Ecurve[] Z = gTable.exponentiation(k);
+				for(int i = 0; i < BATCH; i++) {
+					pairs.put(new Pair(k[i], Z[i]));//blocks while the pool is full
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			//closed
+		}
+	}
+}
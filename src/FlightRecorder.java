@@ -0,0 +1,169 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Flight Recorder events defined at run time with jdk.jfr.EventFactory, which is looked up
+ * reflectively (like the virtual thread executors), so the sources build with --release 8 and
+ * plain hashing still runs on Java 8 runtimes without jdk.jfr, where every event does nothing.
+ * On 8u262+ and 11+ the events are recorded and configured like any jdk.jfr.Event subclass:
+ * disabled by default, no stack trace, turned on by name in a .jfc file or with
+ *  -XX:StartFlightRecording:settings=profile,+cryptoapp.Sponge#enabled=true (JDK 17+)
+ *
+ * @author Andrew Josten
+ */
+final class FlightRecorder {
+	//all null when jdk.jfr is not there
+	private static final MethodHandle ANNOTATION, VALUE, CREATE, NEW_EVENT, EVENT_TYPE, IS_ENABLED,
+			BEGIN, END, SHOULD_COMMIT, SET, COMMIT;
+	private static final Class<?> NAME, LABEL, CATEGORY, DESCRIPTION, ENABLED, STACK_TRACE, DATA_AMOUNT;
+
+	static {
+		MethodHandle[] h = new MethodHandle[11];
+		Class<?>[] a = new Class<?>[7];
+		try {
+			MethodHandles.Lookup l = MethodHandles.publicLookup();
+			Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> value = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+			Class<?> type = Class.forName("jdk.jfr.EventType");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			h[0] = l.findConstructor(annotation, MethodType.methodType(void.class, Class.class, Object.class));
+			h[1] = l.findConstructor(value, MethodType.methodType(void.class, Class.class, String.class, List.class));
+			h[2] = l.findStatic(factory, "create", MethodType.methodType(factory, List.class, List.class));
+			h[3] = l.findVirtual(factory, "newEvent", MethodType.methodType(event));
+			h[4] = l.findVirtual(factory, "getEventType", MethodType.methodType(type));
+			h[5] = l.findVirtual(type, "isEnabled", MethodType.methodType(boolean.class));
+			h[6] = l.findVirtual(event, "begin", MethodType.methodType(void.class));
+			h[7] = l.findVirtual(event, "end", MethodType.methodType(void.class));
+			h[8] = l.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class));
+			h[9] = l.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class));
+			h[10] = l.findVirtual(event, "commit", MethodType.methodType(void.class));
+			String[] names = {"Name", "Label", "Category", "Description", "Enabled", "StackTrace", "DataAmount"};
+			for(int i = 0; i < names.length; i++) {
+				a[i] = Class.forName("jdk.jfr." + names[i]);
+			}
+		}
+		catch(ReflectiveOperationException | LinkageError e) {
+			Arrays.fill(h, null);
+			Arrays.fill(a, null);
+		}
+		ANNOTATION = h[0]; VALUE = h[1]; CREATE = h[2]; NEW_EVENT = h[3]; EVENT_TYPE = h[4]; IS_ENABLED = h[5];
+		BEGIN = h[6]; END = h[7]; SHOULD_COMMIT = h[8]; SET = h[9]; COMMIT = h[10];
+		NAME = a[0]; LABEL = a[1]; CATEGORY = a[2]; DESCRIPTION = a[3]; ENABLED = a[4]; STACK_TRACE = a[5]; DATA_AMOUNT = a[6];
+	}
+
+	private FlightRecorder() {}
+
+	/**
+	 * One field of an event, in the order values are passed to Type.commit
+	 * @param description null for none
+	 * @param bytes true if the field is an amount of data
+	 */
+	static Field field(Class<?> type, String name, String label, String description, boolean bytes) {
+		return new Field(type, name, label, description, bytes);
+	}
+
+	static final class Field {
+		final Class<?> type;
+		final String name, label, description;
+		final boolean bytes;
+
+		private Field(Class<?> type, String name, String label, String description, boolean bytes) {
+			this.type = type;
+			this.name = name;
+			this.label = label;
+			this.description = description;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Registers an event type in category "Crypto", disabled by default and without stack traces
+	 */
+	static Type define(String name, String label, String description, Field... fields) {
+		if(CREATE == null) {
+			return new Type(null, null);
+		}
+		try {
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(ANNOTATION.invoke(NAME, name));
+			annotations.add(ANNOTATION.invoke(LABEL, label));
+			annotations.add(ANNOTATION.invoke(CATEGORY, new String[] {"Crypto"}));
+			annotations.add(ANNOTATION.invoke(DESCRIPTION, description));
+			annotations.add(ANNOTATION.invoke(ENABLED, false));
+			annotations.add(ANNOTATION.invoke(STACK_TRACE, false));
+			List<Object> values = new ArrayList<Object>();
+			for(Field f : fields) {
+				List<Object> a = new ArrayList<Object>();
+				a.add(ANNOTATION.invoke(LABEL, f.label));
+				if(f.description != null) {
+					a.add(ANNOTATION.invoke(DESCRIPTION, f.description));
+				}
+				if(f.bytes) {
+					a.add(ANNOTATION.invoke(DATA_AMOUNT, "BYTES"));
+				}
+				values.add(VALUE.invoke(f.type, f.name, Collections.unmodifiableList(a)));
+			}
+			Object factory = CREATE.invoke(annotations, values);
+			return new Type(factory, EVENT_TYPE.invoke(factory));
+		}
+		catch(Throwable e) {
+			//recording is optional, never a reason for hashing to fail
+			return new Type(null, null);
+		}
+	}
+
+	static final class Type {
+		private final Object factory;
+		private final Object type;
+
+		private Type(Object factory, Object type) {
+			this.factory = factory;
+			this.type = type;
+		}
+
+		/**
+		 * Starts an event
+		 * @return the event, or null when jdk.jfr is missing or no recording has this type enabled
+		 */
+		Object begin() {
+			if(factory == null) {
+				return null;
+			}
+			try {
+				if(!(boolean) IS_ENABLED.invoke(type)) {
+					return null;
+				}
+				Object event = NEW_EVENT.invoke(factory);
+				BEGIN.invoke(event);
+				return event;
+			}
+			catch(Throwable e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Ends an event from begin and commits it with these field values if it passes the recording's thresholds
+		 */
+		void commit(Object event, Object... values) {
+			try {
+				END.invoke(event);
+				if((boolean) SHOULD_COMMIT.invoke(event)) {
+					for(int i = 0; i < values.length; i++) {
+						SET.invoke(event, i, values[i]);
+					}
+					COMMIT.invoke(event);
+				}
+			}
+			catch(Throwable e) {
+				//dropped, as above
+			}
+		}
+	}
+}
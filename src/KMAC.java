@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -73,6 +74,36 @@ public class KMAC {
 		}
 	}
 
+	/**
+	 * KMACXOF256(K, X, 8*out.remaining(), S) over the remaining bytes of X, written into out.
+	 * Direct buffers are read and written in place, and the state is held off heap (OffHeapSponge)
+	 * and zeroed before returning. X and out are advanced to their limits.
+	 */
+	public void KMACXOF256(byte[] K, ByteBuffer X, ByteBuffer out, String S) {
+		try(KMACStream h = new KMACStream(K, S, 0, true)) {
+			h.update(X);
+			h.squeeze(out);
+		}
+	}
+
+	/**
+	 * cSHAKE256(X, 8*out.remaining(), N, S) over the remaining bytes of X, written into out,
+	 * with the state off heap as in KMACXOF256(K, X, out, S)
+	 */
+	public void cSHAKE256(ByteBuffer X, ByteBuffer out, String N, String S) {
+		try(OffHeapSponge sponge = new OffHeapSponge(1088)) {
+			if(N.equals("") && S.equals("")) {//as above, X alone
+				sponge.absorb(X);
+			}
+			else {
+				sponge.absorb(bytepad(concat(encode_string(N.getBytes()), encode_string(S.getBytes())), 136));
+				sponge.absorb(X);
+				sponge.absorb(new byte[] {0x04});
+			}
+			sponge.squeeze(out);
+		}
+	}
+
 	/* Supporting Functions:
 	 * These functions include pad left, pad right, bytepad, encode string, and my own concatenation function (|| in documentation)
 	 */
@@ -98,7 +129,7 @@ public class KMAC {
 	 * @param w an int to be encoded onto the end
 	 * @return byte[]
 	 */
-	private byte[] bytepad(byte[] X, int w) {
+	static byte[] bytepad(byte[] X, int w) {
 		byte[] encoded = left_encode(w);
 		
 		int zSize = X.length + encoded.length;
@@ -113,7 +144,7 @@ public class KMAC {
 	 * Encodes bit strings in a way that may be parsed unambiguously from the beginning of the string
 	 * @param S bit string to encode
 	 */
-	private byte[] encode_string(byte[] S) {
+	static byte[] encode_string(byte[] S) {
 		return concat(left_encode(S.length*8), S);
 	}
 	
@@ -123,7 +154,7 @@ public class KMAC {
 	 * Used this as some reference help
 	 * https://crypto.stackexchange.com/questions/75269/sha3-the-left-right-encode-functions
 	 */
-	private byte[] right_encode(long x) {
+	static byte[] right_encode(long x) {
 		if(x == 0) {
 			return new byte[] {0, 1};
 		}
@@ -147,7 +178,7 @@ public class KMAC {
 	/**
 	 * Encodes so it might be parsed from beginning of string
 	 */
-	private byte[] left_encode(long x){
+	static byte[] left_encode(long x){
 		if(x == 0) {
 			return new byte[] {1, 0};
 		}
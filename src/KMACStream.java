@@ -0,0 +1,169 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental KMACXOF256: the main input X is fed in pieces with update
+ * and the output is squeezed in pieces, so neither has to be in memory at once.
+ * Gives the same bytes as KMAC.KMACXOF256(K, X, L, S).
+ *
+ *  newX = bytepad(encode_string(K), 136) || X || right_encode(0)
+ *  return cSHAKE256(newX, L, "KMAC", S)
+ *
+ * Constructed with an output length it is KMAC256 instead, which ends X with right_encode(L).
+ * Constructed off heap the state is an OffHeapSponge, and close() zeroes it. The key is absorbed
+ * straight from K, so off heap no copy of it is left on the heap (K itself is the caller's).
+ *
+ * Like KMAC.cSHAKE256 the input is ended with 0x04 and the sponge's own padding, which adds
+ * nothing when the input fills its last block, so these are not the SP 800-185 bytes for
+ * every length of X. standard() gives the SP 800-185 padding (see KmacProvider).
+ *
+ * @author Andrew Josten
+ */
+public class KMACStream implements AutoCloseable {
+	private final Sponge sponge;
+	//0 for KMACXOF256, the fixed output length in bits for KMAC256
+	private final int L;
+	private boolean finished;
+	//SP 800-185 padding, which needs the length of X mod 136
+	private boolean standard;
+	private long absorbed;
+
+	/**
+	 * @param K Key. Byte array of any length (including 0)
+	 * @param S Customization string
+	 */
+	public KMACStream(byte[] K, String S) {
+		this(K, S, 0);
+	}
+
+	/**
+	 * KMAC256(K, X, L, S), whose output depends on L
+	 * @param L Output length in bits, 0 for KMACXOF256
+	 */
+	public KMACStream(byte[] K, String S, int L) {
+		this(K, S, L, false);
+	}
+
+	/**
+	 * @param L Output length in bits, 0 for KMACXOF256
+	 * @param offHeap keep the state in native memory (see OffHeapSponge)
+	 */
+	public KMACStream(byte[] K, String S, int L, boolean offHeap) {
+		this.L = L;
+		sponge = offHeap ? new OffHeapSponge(1088) : new KeccakSponge(1088);
+		//cSHAKE256 prefix: bytepad(encode_string("KMAC") || encode_string(S), 136)
+		sponge.absorb(KMAC.bytepad(KMAC.concat(KMAC.encode_string("KMAC".getBytes()), KMAC.encode_string(S.getBytes())), 136));
+		//KMAC key block: bytepad(encode_string(K), 136), absorbed piece by piece so K is not copied on the heap
+		byte[] w = KMAC.left_encode(136);
+		byte[] n = KMAC.left_encode(K.length*8);
+		sponge.absorb(w);
+		sponge.absorb(n);
+		sponge.absorb(K);
+		//KMAC.bytepad adds a whole block of zeros when the block is already full
+		sponge.absorb(new byte[136 - (w.length + n.length + K.length) % 136]);
+	}
+
+	private KMACStream(KMACStream o) {
+		sponge = o.sponge.copy();
+		L = o.L;
+		finished = o.finished;
+		standard = o.standard;
+		absorbed = o.absorbed;
+	}
+
+	/**
+	 * KMAC256(K, X, L, S), or KMACXOF256 for L = 0, padded as SP 800-185 and FIPS 202 pad it:
+	 * the 0x04 suffix and pad10*1 to the end of the block, a whole block when X fills the last one
+	 */
+	public static KMACStream standard(byte[] K, String S, int L) {
+		KMACStream k = new KMACStream(K, S, L);
+		k.standard = true;
+		return k;
+	}
+
+	/**
+	 * Forks the stream; e.g. a keyed stream copied before any X is absorbed saves re-absorbing the key block
+	 */
+	public KMACStream copy() {
+		return new KMACStream(this);
+	}
+
+	/**
+	 * Absorbs len more bytes of X
+	 */
+	public void update(byte[] X, int off, int len) {
+		if(finished) {
+			throw new IllegalStateException("Cannot update after output was read");
+		}
+		sponge.absorb(X, off, len);
+		absorbed += len;
+	}
+
+	public void update(byte[] X) {
+		update(X, 0, X.length);
+	}
+
+	/**
+	 * Absorbs the remaining bytes of X, heap or direct
+	 */
+	public void update(ByteBuffer X) {
+		if(finished) {
+			throw new IllegalStateException("Cannot update after output was read");
+		}
+		absorbed += X.remaining();
+		sponge.absorb(X);
+	}
+
+	/**
+	 * Squeezes the next len output bytes. Ends the input on the first call.
+	 */
+	public void squeeze(byte[] out, int off, int len) {
+		endInput();
+		sponge.squeeze(out, off, len);
+	}
+
+	/**
+	 * Squeezes dst.remaining() output bytes into dst, heap or direct. Ends the input on the first call.
+	 */
+	public void squeeze(ByteBuffer dst) {
+		endInput();
+		sponge.squeeze(dst);
+	}
+
+	private void endInput() {
+		if(!finished) {
+			//right_encode(L) || 00 (the 0x04 suffix of cSHAKE)
+			byte[] r = KMAC.right_encode(L);
+			sponge.absorb(r);
+			if(standard) {
+				//suffix and pad10*1 as whole bytes, so the sponge has nothing left to pad; 0x84 if one byte is left
+				byte[] pad = new byte[136 - (int) ((absorbed + r.length) % 136)];
+				pad[0] = 0x04;
+				pad[pad.length - 1] |= (byte) 0x80;
+				sponge.absorb(pad);
+			}
+			else {
+				sponge.absorb(new byte[] {0x04});
+			}
+			finished = true;
+		}
+	}
+
+	/**
+	 * Squeezes L bits of output
+	 */
+	public byte[] digest(int L) {
+		byte[] Z = new byte[L / 8];
+		squeeze(Z, 0, Z.length);
+		return Z;
+	}
+
+	/**
+	 * Zeroes an off heap state; a heap state is left to the garbage collector
+	 */
+	@Override
+	public void close() {
+		if(sponge instanceof OffHeapSponge) {
+			((OffHeapSponge) sponge).close();
+		}
+	}
+}
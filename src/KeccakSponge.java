@@ -0,0 +1,184 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental version of the sponge in SHA3.Keccak: input can be absorbed a piece at a time
+ * and output squeezed a piece at a time, so inputs and outputs never have to be held whole.
+ * For the same bytes it gives exactly the output of SHA3.Keccak, padding included.
+ * OffHeapSponge is the same sponge with its state in native memory.
+ *
+ * @author Andrew Josten
+ */
+public class KeccakSponge implements Sponge {
+	private final int rateBytes;
+	private long[] lane = new long[25];
+
+	//Absorbing: the partial block not yet xored into the state
+	private final byte[] block;
+	private int pos;
+
+	//Squeezing: the current output block and how much of it has been handed out
+	private boolean squeezing;
+	private final byte[] out;
+	private int outPos;
+
+	/**
+	 * @param rate the rate in bits (1088 for the 256 bit functions)
+	 */
+	public KeccakSponge(int rate) {
+		rateBytes = rate / 8;
+		block = new byte[rateBytes];
+		out = new byte[rateBytes];
+	}
+
+	//an independent copy of o's state
+	private KeccakSponge(KeccakSponge o) {
+		rateBytes = o.rateBytes;
+		lane = o.lane.clone();
+		block = o.block.clone();
+		pos = o.pos;
+		squeezing = o.squeezing;
+		out = o.out.clone();
+		outPos = o.outPos;
+	}
+
+	/**
+	 * Forks the sponge: the copy continues from the current state independently,
+	 * so a shared prefix only has to be absorbed once
+	 */
+	public KeccakSponge copy() {
+		return new KeccakSponge(this);
+	}
+
+	/**
+	 * Absorbs len bytes of b starting at off
+	 */
+	public void absorb(byte[] b, int off, int len) {
+		if(squeezing) {
+			throw new IllegalStateException("Cannot absorb after squeezing");
+		}
+		CryptoMetrics.bytesAbsorbed.add(len);
+		SpongeEvent event = SpongeEvent.start();
+		int total = len;
+		while(len > 0) {
+			int n = Math.min(len, rateBytes - pos);
+			System.arraycopy(b, off, block, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+			if(pos == rateBytes) {
+				absorbBlock();
+			}
+		}
+		event.finish("absorb", total, 0);
+	}
+
+	public void absorb(byte[] b) {
+		absorb(b, 0, b.length);
+	}
+
+	/**
+	 * Absorbs the remaining bytes of b, heap or direct, copying them straight into the block buffer.
+	 * b's position is advanced to its limit.
+	 */
+	public void absorb(ByteBuffer b) {
+		if(squeezing) {
+			throw new IllegalStateException("Cannot absorb after squeezing");
+		}
+		CryptoMetrics.bytesAbsorbed.add(b.remaining());
+		SpongeEvent event = SpongeEvent.start();
+		int total = b.remaining();
+		while(b.hasRemaining()) {
+			int n = Math.min(b.remaining(), rateBytes - pos);
+			b.get(block, pos, n);
+			pos += n;
+			if(pos == rateBytes) {
+				absorbBlock();
+			}
+		}
+		event.finish("absorb", total, 0);
+	}
+
+	/**
+	 * Squeezes the next len bytes of output into b starting at off.
+	 * The first call pads the input the same way SHA3.Keccak does.
+	 */
+	public void squeeze(byte[] b, int off, int len) {
+		if(!squeezing) {
+			pad();
+			squeezing = true;
+			laneBytes();
+		}
+		CryptoMetrics.bytesSqueezed.add(len);
+		SpongeEvent event = SpongeEvent.start();
+		int total = len;
+		while(len > 0) {
+			if(outPos == rateBytes) {
+				lane = SHA3.keccakPerms(lane);
+				laneBytes();
+			}
+			int n = Math.min(len, rateBytes - outPos);
+			System.arraycopy(out, outPos, b, off, n);
+			outPos += n;
+			off += n;
+			len -= n;
+		}
+		event.finish("squeeze", 0, total);
+	}
+
+	/**
+	 * Squeezes dst.remaining() bytes of output into dst, heap or direct
+	 */
+	public void squeeze(ByteBuffer dst) {
+		byte[] b = new byte[Math.min(dst.remaining(), rateBytes)];
+		while(dst.hasRemaining()) {
+			int n = Math.min(dst.remaining(), b.length);
+			squeeze(b, 0, n);
+			dst.put(b, 0, n);
+		}
+	}
+
+	/**
+	 * Squeezes outputBitLen bits of output
+	 */
+	public byte[] squeeze(int outputBitLen) {
+		byte[] Z = new byte[outputBitLen / 8];
+		squeeze(Z, 0, Z.length);
+		return Z;
+	}
+
+	//Padding. As in SHA3.Keccak, input that fills whole blocks gets no padding block
+	private void pad() {
+		if(pos != 0) {
+			for(int i = pos; i < rateBytes; i++) {
+				block[i] = 0;
+			}
+			block[rateBytes - 1] = (byte) 128;
+			absorbBlock();
+		}
+	}
+
+	//xor the full block into the state and permute
+	private void absorbBlock() {
+		int off = 0;
+		for(int j = 0; j < rateBytes / 8; j++) {
+			long temp = 0L;
+			for(int k = 0; k < 8; k++) {
+				temp += (((long) block[off + k]) & 255)<<(8 * k);
+			}
+			lane[j] ^= temp;
+			off += 8;
+		}
+		lane = SHA3.keccakPerms(lane);
+		pos = 0;
+	}
+
+	//write the rate part of the state out as bytes, ready to be squeezed
+	private void laneBytes() {
+		for(int j = 0; j < rateBytes / 8; j++) {
+			for(int i = 0; i < 8; i++) {
+				out[j*8 + i] = (byte) (lane[j] >>> (8 * i) & 255);
+			}
+		}
+		outPos = 0;
+	}
+}
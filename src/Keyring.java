@@ -0,0 +1,370 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory mapped file of public keys, indexed by fingerprint, with optional stored PointTables,
+ * so recipients are loaded without decompressing V or building a table again.
+ *
+ *  header:  "KRNG" || version (1 byte) || 0 0 0 || count (4 bytes) || 0 0 0 0
+ *  index:   count entries sorted by fingerprint, each
+ *           fingerprint (32 bytes) || V as x || y (132 bytes) || table offset (8 bytes, -1 if none)
+ *  tables:  points (4 bytes) || the table's points as x || y (132 bytes each)
+ *
+ * Opening maps the index only; a lookup is a binary search over it, and a stored table
+ * is mapped, checked against V and rebuilt the first time its key is asked for. The file
+ * is never changed in place: add() writes a new file next to it and moves it over the old one.
+ *
+ * Checking a table is not free: every one of its 1965 points is tested against V, which costs
+ * about 60% of building the table (some 30 ms against 47 ms per key on one core), so a stored
+ * table saves the rest and no more. Loaded keys are kept per Keyring, so a run that uses a ring
+ * should open it once and look every key up through it (as BatchRunner and Main do).
+ *
+ * @author Andrew Josten
+ */
+public class Keyring implements Closeable {
+	private static final byte[] MAGIC = {'K', 'R', 'N', 'G'};
+	public static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 16;
+	private static final int FINGERPRINT_LENGTH = 32;
+	private static final int POINT_LENGTH = 2 * Ecurve.COMPRESSED_LENGTH;
+	private static final int ENTRY_LENGTH = FINGERPRINT_LENGTH + POINT_LENGTH + 8;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer index;
+	private final int count;
+	//Keys already loaded, by index entry
+	private final ConcurrentHashMap<Integer, EcPublicKey> loaded = new ConcurrentHashMap<Integer, EcPublicKey>();
+
+	private Keyring(FileChannel channel, MappedByteBuffer index, int count) {
+		this.channel = channel;
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * Maps the index of an existing keyring
+	 */
+	public static Keyring open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			while(header.hasRemaining() && channel.read(header) != -1);
+			if(header.hasRemaining() || !Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length), MAGIC)) {
+				throw new IOException("Not a keyring: " + file);
+			}
+			int version = header.get(4) & 255;
+			if(version > VERSION) {
+				throw new IOException("Keyring version " + version + " is newer than this reader (" + VERSION + ")");
+			}
+			int count = header.getInt(8);
+			long length = HEADER_LENGTH + (long) count * ENTRY_LENGTH;
+			if(count < 0 || length > channel.size()) {
+				throw new IOException("Keyring index is truncated");
+			}
+			return new Keyring(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, length), count);
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * True if name has the form "ring.krg#fingerprint", naming a key in a keyring by (a hex prefix of) its fingerprint:
+	 * the part after the last '#' is hex and the part before is an existing file. A file that is itself called
+	 * name (keys#1.pub, keys#ab) is never a reference.
+	 */
+	public static boolean isReference(String name) {
+		int hash = name.lastIndexOf('#');
+		if(hash <= 0 || name.length() - hash - 1 > 2 * FINGERPRINT_LENGTH
+				|| !name.substring(hash + 1).matches("[0-9a-fA-F]+")) {
+			return false;
+		}
+		return !Files.exists(Paths.get(name)) && Files.isRegularFile(Paths.get(name.substring(0, hash)));
+	}
+
+	/**
+	 * Opens the keyring a reference names just long enough to find the key.
+	 * Each call loads the key again; to resolve several, keep the Keyring open.
+	 */
+	public static EcPublicKey resolve(String reference) throws IOException {
+		int hash = reference.lastIndexOf('#');
+		try(Keyring ring = open(Paths.get(reference.substring(0, hash)))) {
+			return ring.find(reference.substring(hash + 1));
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Looks a key up by its full fingerprint
+	 * @return the key, carrying its table if one is stored, or null if it is not in the ring
+	 */
+	public EcPublicKey get(byte[] fingerprint) throws IOException {
+		int i = lowerBound(fingerprint);
+		if(i < count && compare(i, fingerprint) == 0) {
+			return load(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Looks a key up by a hex prefix of its fingerprint, as printed by fingerprints()
+	 * @throws IllegalArgumentException if no key, or more than one, matches
+	 */
+	public EcPublicKey find(String hexPrefix) throws IOException {
+		String prefix = hexPrefix.toLowerCase();
+		if(prefix.isEmpty() || prefix.length() > 2 * FINGERPRINT_LENGTH || !prefix.matches("[0-9a-f]+")) {
+			throw new IllegalArgumentException("Bad fingerprint: " + hexPrefix);
+		}
+		//the smallest fingerprint with this prefix is the prefix padded with zeros
+		byte[] low = new byte[FINGERPRINT_LENGTH];
+		for(int c = 0; c < prefix.length(); c++) {
+			low[c / 2] |= Character.digit(prefix.charAt(c), 16) << (c % 2 == 0 ? 4 : 0);
+		}
+		int i = lowerBound(low);
+		if(i == count || !TreeHasher.toHex(fingerprint(i)).startsWith(prefix)) {
+			throw new IllegalArgumentException("No key with fingerprint " + hexPrefix);
+		}
+		if(i + 1 < count && TreeHasher.toHex(fingerprint(i + 1)).startsWith(prefix)) {
+			throw new IllegalArgumentException("More than one key with fingerprint " + hexPrefix);
+		}
+		return load(i);
+	}
+
+	/**
+	 * Every fingerprint in the ring, in hex, in index order
+	 */
+	public List<String> fingerprints() {
+		List<String> all = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++) {
+			all.add(TreeHasher.toHex(fingerprint(i)));
+		}
+		return all;
+	}
+
+	/**
+	 * Every key in the ring, with its table if one is stored
+	 */
+	public List<EcPublicKey> keys() throws IOException {
+		List<EcPublicKey> all = new ArrayList<EcPublicKey>(count);
+		for(int i = 0; i < count; i++) {
+			all.add(load(i));
+		}
+		return all;
+	}
+
+	/**
+	 * Hands every stored table to the cache, so plain EcPublicKey handles for these keys use them too
+	 * @return the number of tables added
+	 */
+	public int preload(PublicKeyTableCache cache) throws IOException {
+		int n = 0;
+		for(int i = 0; i < count; i++) {
+			PointTable table = load(i).getTable();
+			if(table != null) {
+				cache.put(table);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released when it is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/*Writing*/
+
+	/**
+	 * Writes a keyring holding exactly these keys (duplicates are stored once).
+	 * Keys that carry a table (EcPublicKey.withTable, or loaded from a keyring) have it stored.
+	 * @param tables also build and store a table for every key without one
+	 * @return the number of keys written
+	 */
+	public static int write(Path file, Collection<EcPublicKey> keys, boolean tables) throws IOException {
+		//sorted by fingerprint, which also drops duplicates (keeping one with a table)
+		TreeMap<byte[], EcPublicKey> sorted = new TreeMap<byte[], EcPublicKey>(FINGERPRINT_ORDER);
+		for(EcPublicKey k : keys) {
+			EcPublicKey old = sorted.get(k.fingerprint());
+			if(old == null || old.getTable() == null) {
+				sorted.put(k.fingerprint(), k);
+			}
+		}
+		List<EcPublicKey> ordered = new ArrayList<EcPublicKey>(sorted.values());
+		//a table costs about three scalar multiplications, so missing ones are built in parallel
+		List<PointTable> built = Arrays.asList(ordered.parallelStream()
+				.map(k -> k.getTable() != null || !tables ? k.getTable() : new PointTable(k.getV()))
+				.toArray(PointTable[]::new));
+
+		Path partial = file.resolveSibling(file.getFileName() + ".part");
+		try(OutputStream stream = Files.newOutputStream(partial)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.write(MAGIC);
+			out.write(new byte[] {(byte) VERSION, 0, 0, 0});
+			out.writeInt(ordered.size());
+			out.writeInt(0);
+
+			long offset = HEADER_LENGTH + (long) ordered.size() * ENTRY_LENGTH;
+			for(int i = 0; i < ordered.size(); i++) {
+				EcPublicKey k = ordered.get(i);
+				out.write(k.fingerprint());
+				out.write(k.getV().toBytes());
+				PointTable table = built.get(i);
+				out.writeLong(table == null ? -1 : offset);
+				if(table != null) {
+					offset += 4 + (long) table.points().length * POINT_LENGTH;
+				}
+			}
+			for(PointTable table : built) {
+				if(table != null) {
+					out.writeInt(table.points().length);
+					for(Ecurve P : table.points()) {
+						out.write(P.toBytes());
+					}
+				}
+			}
+			out.flush();
+		}
+		Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return ordered.size();
+	}
+
+	/**
+	 * Adds keys to a keyring, creating it if needed. Keys already in it keep their stored tables.
+	 * @param tables build and store a table for every key in the ring that has none
+	 * @return the number of keys in the ring afterwards
+	 */
+	public static int add(Path file, Collection<EcPublicKey> keys, boolean tables) throws IOException {
+		List<EcPublicKey> all = new ArrayList<EcPublicKey>();
+		if(Files.exists(file)) {
+			try(Keyring ring = open(file)) {
+				all.addAll(ring.keys());
+			}
+		}
+		all.addAll(keys);
+		return write(file, all, tables);
+	}
+
+	/*Reading entries*/
+
+	private static final Comparator<byte[]> FINGERPRINT_ORDER = (a, b) -> {
+		for(int i = 0; i < FINGERPRINT_LENGTH; i++) {
+			int d = (a[i] & 255) - (b[i] & 255);
+			if(d != 0) {
+				return d;
+			}
+		}
+		return 0;
+	};
+
+	private byte[] fingerprint(int i) {
+		byte[] f = new byte[FINGERPRINT_LENGTH];
+		ByteBuffer b = index.duplicate();
+		((Buffer) b).position(HEADER_LENGTH + i * ENTRY_LENGTH);
+		b.get(f);
+		return f;
+	}
+
+	private int compare(int i, byte[] fingerprint) {
+		int base = HEADER_LENGTH + i * ENTRY_LENGTH;
+		for(int j = 0; j < FINGERPRINT_LENGTH; j++) {
+			int d = (index.get(base + j) & 255) - (fingerprint[j] & 255);
+			if(d != 0) {
+				return d;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the first entry whose fingerprint is not less than fingerprint, count if there is none
+	 */
+	private int lowerBound(byte[] fingerprint) {
+		int lo = 0;
+		int hi = count;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(compare(mid, fingerprint) < 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private EcPublicKey load(int i) throws IOException {
+		EcPublicKey k = loaded.get(i);
+		if(k != null) {
+			return k;
+		}
+		ByteBuffer b = index.duplicate();
+		((Buffer) b).position(HEADER_LENGTH + i * ENTRY_LENGTH + FINGERPRINT_LENGTH);
+		Ecurve V = readPoint(b);
+		if(!V.isOnCurve()) {
+			throw new IOException("Keyring entry " + i + " is not a curve point");
+		}
+		long offset = b.getLong();
+		PointTable table = offset < 0 ? null : readTable(V, offset);
+		k = new EcPublicKey(V, table);
+		if(!Arrays.equals(k.fingerprint(), fingerprint(i))) {
+			throw new IOException("Keyring entry " + i + " does not match its fingerprint");
+		}
+		loaded.put(i, k);
+		return k;
+	}
+
+	private PointTable readTable(Ecurve V, long offset) throws IOException {
+		ByteBuffer n = ByteBuffer.allocate(4);
+		while(n.hasRemaining() && channel.read(n, offset + n.position()) != -1);
+		int points = n.getInt(0);
+		if(n.hasRemaining() || points <= 0 || offset + 4 + (long) points * POINT_LENGTH > channel.size()) {
+			throw new IOException("Keyring table at " + offset + " is truncated");
+		}
+		MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset + 4, (long) points * POINT_LENGTH);
+		Ecurve[] table = new Ecurve[points];
+		for(int j = 0; j < points; j++) {
+			table[j] = readPoint(b);
+		}
+		//every point is checked against V, since encrypting with a table that is not V's leaks the key
+		try {
+			return new PointTable(V, table);
+		}
+		catch(IllegalArgumentException e) {
+			throw new IOException("Keyring table at " + offset + " is not for its key: " + e.getMessage());
+		}
+	}
+
+	private static Ecurve readPoint(ByteBuffer b) {
+		byte[] xy = new byte[POINT_LENGTH];
+		b.get(xy);
+		return Ecurve.unByte(xy);
+	}
+}
@@ -0,0 +1,83 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Deterministic random bit generator built on KMACXOF256, shared by a fixed set of threads.
+ *
+ * Output is squeezed from the keystream KMACXOF256(key, "", *, "DRBG"). After every request the
+ * next 64 keystream bytes become the key of a new keystream and the old one is dropped, so the
+ * state held between requests cannot be run backwards (Keccak-f is invertible) to output already
+ * handed out. After RESEED_INTERVAL requests the key is instead KMACXOF256(seed, next 64 keystream
+ * bytes, 512, "DRBG seed") with a fresh SecureRandom seed.
+ *
+ * There are STRIPES generators, picked by thread id, rather than one per thread: virtual threads
+ * (AsyncCrypto, CryptoServer, TreeHasher) would otherwise each build and seed their own from
+ * the shared SecureRandom for a single task. A request holds its generator's lock only while squeezing.
+ *
+ * @author Andrew Josten
+ */
+public class KmacDrbg {
+	//Requests served between reseeds
+	private static final int RESEED_INTERVAL = 1 << 12;
+
+	//Only touched when a generator is seeded
+	private static final SecureRandom seedSource = new SecureRandom();
+
+	//A power of two, at least the number of processors
+	private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+	private static final KmacDrbg[] stripes = new KmacDrbg[STRIPES];
+	static {
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = new KmacDrbg();
+		}
+	}
+
+	private final KMAC kmac = new KMAC();
+	private KMACStream keystream;
+	private int requests;
+
+	private KmacDrbg() {
+		reseed();
+	}
+
+	/**
+	 * Gets the generator for the calling thread (shared with the threads whose ids fall in the same stripe)
+	 */
+	public static KmacDrbg current() {
+		return stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+	}
+
+	/**
+	 * Fills b with random bytes, then rekeys
+	 */
+	public synchronized void nextBytes(byte[] b) {
+		if(++requests > RESEED_INTERVAL) {
+			reseed();
+		}
+		keystream.squeeze(b, 0, b.length);
+
+		//key <- the next 64 keystream bytes, and the state that produced b is dropped
+		byte[] key = new byte[64];
+		keystream.squeeze(key, 0, 64);
+		keystream = new KMACStream(key, "DRBG");
+		Arrays.fill(key, (byte) 0);
+	}
+
+	/**
+	 * Mixes fresh SecureRandom output into a new key and restarts the keystream.
+	 * The old key is not kept, so earlier output cannot be recomputed from the new state.
+	 */
+	public synchronized void reseed() {
+		byte[] seed = new byte[64];
+		seedSource.nextBytes(seed);
+		byte[] chain = new byte[64];
+		if(keystream != null) {
+			keystream.squeeze(chain, 0, 64);
+		}
+
+		//key <- KMACXOF256(seed, chain, 512, "DRBG seed")
+		byte[] key = kmac.KMACXOF256(seed, chain, 512, "DRBG seed");
+		keystream = new KMACStream(key, "DRBG");
+		requests = 0;
+	}
+}
@@ -1,4 +1,9 @@
-import java.security.SecureRandom;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 /**
@@ -21,7 +26,10 @@ public class KmacFunctions {
 	 * @return a hash h built via byte array m
 	 */
 	public byte[] cryptographicHash(byte[] m){
-		return kmac.KMACXOF256(new byte[] {}, m, 512, "D");
+		CryptoEvent event = CryptoEvent.start();
+		byte[] h = kmac.KMACXOF256(new byte[] {}, m, 512, "D");
+		CryptoMetrics.record(CryptoMetrics.Op.HASH, event, m.length, h.length);
+		return h;
 	}
 	
 	/**
@@ -32,7 +40,10 @@ public class KmacFunctions {
 	 * @return a hash h built via byte array m
 	 */
 	public byte[] authenticationTag(byte[] m, byte[] pw){
-		return kmac.KMACXOF256(pw, m, 512, "T");
+		CryptoEvent event = CryptoEvent.start();
+		byte[] t = kmac.KMACXOF256(pw, m, 512, "T");
+		CryptoMetrics.record(CryptoMetrics.Op.MAC, event, m.length, t.length);
+		return t;
 	}
 	
 	/**
@@ -42,8 +53,9 @@ public class KmacFunctions {
 	 * @return Symmetric cryptogram: byte array of elements (z,c,t)
 	 */
 	public byte[] encrypt(byte[] m, byte[] pw){
+		CryptoEvent event = CryptoEvent.start();
 		//z <- Random(512), 64*8 =512
-		SecureRandom sr = new SecureRandom();
+		KmacDrbg sr = KmacDrbg.current();
         byte[] rand = new byte[64];
         sr.nextBytes(rand);
         byte [] z = rand;
@@ -70,7 +82,9 @@ public class KmacFunctions {
         r[1] = xorC;
         r[2] = t;
         
-        return concat(r[0], concat(r[1], r[2]));
+        byte[] gram = concat(r[0], concat(r[1], r[2]));
+        CryptoMetrics.record(CryptoMetrics.Op.ENCRYPT, event, m.length, gram.length);
+        return gram;
 	}
 	
 	/**
@@ -80,6 +94,7 @@ public class KmacFunctions {
 	 * @return Decrpyted message. Only if successfully decrpyted
 	 */
 	public byte[] decrypt(byte[] gram, byte[] pw){
+		CryptoEvent event = CryptoEvent.start();
 		
 		byte[][] zct = new byte[3][];
 		zct[0] = Arrays.copyOfRange(gram, 0, 64);
@@ -101,6 +116,7 @@ public class KmacFunctions {
         
         //t'<-KMACXOF256(ka, m, 512, "SKA")
         byte tPrime[] = kmac.KMACXOF256(ka, xorM, 512, "SKA");
+        CryptoMetrics.record(CryptoMetrics.Op.DECRYPT, event, gram.length, xorM.length);
         
         if(Arrays.equals(zct[2], tPrime)){
         	return xorM;
@@ -110,6 +126,179 @@ public class KmacFunctions {
         	return new byte[] {};
         }
 	}
+	/**
+	 * Streaming cryptographic hash, h<-KMACXOF256("", m, 512, "D")
+	 * @param in the message m, read to its end (not closed)
+	 */
+	public byte[] cryptographicHash(InputStream in) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		byte[] h = StreamCipher.absorb(new KMACStream(new byte[] {}, "D"), in).digest(512);
+		CryptoMetrics.record(CryptoMetrics.Op.HASH, event, -1, h.length);
+		return h;
+	}
+	
+	/**
+	 * Streaming authentication tag, t<-KMACXOF256(pw, m, 512, "T")
+	 * @param in the message m, read to its end (not closed)
+	 */
+	public byte[] authenticationTag(InputStream in, byte[] pw) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		byte[] t = StreamCipher.absorb(new KMACStream(pw, "T"), in).digest(512);
+		CryptoMetrics.record(CryptoMetrics.Op.MAC, event, -1, t.length);
+		return t;
+	}
+	
+	/**
+	 * Streaming symmetric encryption, same z || c || t layout as encrypt(m, pw)
+	 * @param in the message m, read to its end (not closed)
+	 * @param out receives z || c || t (not closed)
+	 */
+	public void encrypt(InputStream in, OutputStream out, byte[] pw) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		//z <- Random(512)
+		byte[] z = new byte[64];
+		KmacDrbg.current().nextBytes(z);
+		
+		KMACStream[] streams = symmetricStreams(z, pw);
+		out.write(z);
+		
+		//c <- KMACXOF256(ke, "", |m|, "SKE") xor m; t<-KMACXOF256(ka, m, 512, "SKA")
+		long n = StreamCipher.seal(in, out, streams[0], streams[1]);
+		CryptoMetrics.record(CryptoMetrics.Op.ENCRYPT, event, n, n + 128);
+	}
+	
+	/**
+	 * Streaming symmetric decryption of z || c || t.
+	 * m is written out before t can be checked, so the caller must throw the output away if this returns false.
+	 * @param in the cryptogram, read to its end (not closed)
+	 * @param out receives m (not closed)
+	 * @return true if the tag t matched
+	 */
+	public boolean decrypt(InputStream in, OutputStream out, byte[] pw) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		//recorded however it ends, so short and failed cryptograms show in the counts too
+		try {
+			byte[] z = new byte[64];
+			if(StreamCipher.readFully(in, z, 0, 64) < 64) {
+				return false;
+			}
+			KMACStream[] streams = symmetricStreams(z, pw);
+			
+			//m <- KMACXOF256(ke, "", |c|, "SKE") xor c; t'<-KMACXOF256(ka, m, 512, "SKA")
+			return StreamCipher.open(in, out, streams[0], streams[1]);
+		}
+		finally {
+			CryptoMetrics.record(CryptoMetrics.Op.DECRYPT, event, -1, -1);
+		}
+	}
+	
+	/**
+	 * Cryptographic hash of the remaining bytes of m, h<-KMACXOF256("", m, 512, "D"),
+	 * read in place from a direct buffer with the state off heap
+	 */
+	public byte[] cryptographicHash(ByteBuffer m) {
+		CryptoEvent event = CryptoEvent.start();
+		int n = m.remaining();
+		ByteBuffer h = ByteBuffer.allocate(64);
+		kmac.KMACXOF256(new byte[] {}, m, h, "D");
+		CryptoMetrics.record(CryptoMetrics.Op.HASH, event, n, 64);
+		return h.array();
+	}
+	
+	/**
+	 * Authentication tag of the remaining bytes of m, t<-KMACXOF256(pw, m, 512, "T"),
+	 * with the keyed state off heap
+	 */
+	public byte[] authenticationTag(ByteBuffer m, byte[] pw) {
+		CryptoEvent event = CryptoEvent.start();
+		int n = m.remaining();
+		ByteBuffer t = ByteBuffer.allocate(64);
+		kmac.KMACXOF256(pw, m, t, "T");
+		CryptoMetrics.record(CryptoMetrics.Op.MAC, event, n, 64);
+		return t.array();
+	}
+	
+	/**
+	 * Symmetric encryption between channels, same z || c || t layout as encrypt(m, pw).
+	 * m and c only pass through direct buffers, and both keyed states are off heap and zeroed afterwards.
+	 * @param in the message m, read to its end (not closed)
+	 * @param out receives z || c || t (not closed)
+	 */
+	public void encrypt(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		//z <- Random(512)
+		byte[] z = new byte[64];
+		KmacDrbg.current().nextBytes(z);
+		
+		KMACStream[] streams = symmetricStreams(z, pw, true);
+		try {
+			ByteBuffer zb = ByteBuffer.wrap(z);
+			while(zb.hasRemaining()) {
+				out.write(zb);
+			}
+			long n = StreamCipher.seal(in, out, streams[0], streams[1]);
+			CryptoMetrics.record(CryptoMetrics.Op.ENCRYPT, event, n, n + 128);
+		}
+		finally {
+			streams[0].close();
+			streams[1].close();
+		}
+	}
+	
+	/**
+	 * Symmetric decryption of z || c || t between channels, as encrypt(ReadableByteChannel, ...).
+	 * m is written out before t can be checked, so the caller must throw the output away if this returns false.
+	 * @return true if the tag t matched
+	 */
+	public boolean decrypt(ReadableByteChannel in, WritableByteChannel out, byte[] pw) throws IOException {
+		CryptoEvent event = CryptoEvent.start();
+		ByteBuffer z = ByteBuffer.allocate(64);
+		KMACStream[] streams = null;
+		try {
+			while(z.hasRemaining() && in.read(z) != -1);
+			if(z.hasRemaining()) {
+				return false;
+			}
+			streams = symmetricStreams(z.array(), pw, true);
+			return StreamCipher.open(in, out, streams[0], streams[1]);
+		}
+		finally {
+			if(streams != null) {
+				streams[0].close();
+				streams[1].close();
+			}
+			CryptoMetrics.record(CryptoMetrics.Op.DECRYPT, event, -1, -1);
+		}
+	}
+	
+	/**
+	 * ke||ka <- KMACXOF256(z|| pw, "", 1024, "S")
+	 * @return {keystream KMACXOF256(ke, "", *, "SKE"), tag KMACXOF256(ka, *, 512, "SKA")}
+	 */
+	KMACStream[] symmetricStreams(byte[] z, byte[] pw) {
+		return symmetricStreams(z, pw, false);
+	}
+	
+	/**
+	 * @param offHeap derive ke and ka and key the streams in off heap states, and zero z || pw, ke and ka,
+	 * the only heap copies of key material made here (pw itself is the caller's)
+	 */
+	KMACStream[] symmetricStreams(byte[] z, byte[] pw, boolean offHeap) {
+		byte[] zpw = concat(z, pw);
+		byte[] ke = new byte[64];
+		byte[] ka = new byte[64];
+		try(KMACStream s = new KMACStream(zpw, "S", 0, offHeap)) {
+			s.squeeze(ke, 0, 64);
+			s.squeeze(ka, 0, 64);
+		}
+		KMACStream[] streams = {new KMACStream(ke, "SKE", 0, offHeap), new KMACStream(ka, "SKA", 0, offHeap)};
+		if(offHeap) {
+			Arrays.fill(zpw, (byte) 0);
+			Arrays.fill(ke, (byte) 0);
+			Arrays.fill(ka, (byte) 0);
+		}
+		return streams;
+	}
 	
 	
 	
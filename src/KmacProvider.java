@@ -0,0 +1,210 @@
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigestSpi;
+import java.security.Provider;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.MacSpi;
+
+/**
+ * JCA provider for the Keccak based functions, so they can be used through
+ * java.security.MessageDigest and javax.crypto.Mac (DigestInputStream, NIO channels, etc.)
+ * without buffering whole messages:
+ *  MessageDigest "cSHAKE256"   cSHAKE256(X, 512, "", ""), which FIPS 202 defines as SHAKE256(X, 512);
+ *                              padded to the standard, so not the bytes of KMAC.cSHAKE256(X, 512, "", "")
+ *  Mac "KMACXOF256"            KMACXOF256(K, X, 512, S)
+ *  Mac "KMAC256"               KMAC256(K, X, 512, S)
+ *                              both padded to the standard (KMACStream.standard), so for some lengths of X
+ *                              not the bytes of KMAC.KMACXOF256, which the app's cryptograms keep using
+ * S is "" unless the Mac is initialized with a Customization. update(ByteBuffer) feeds the sponge
+ * straight from the buffer, direct buffers included, and clone() forks the state.
+ *
+ * Register with Security.addProvider(new KmacProvider()), or pass it to getInstance.
+ *
+ * @author Andrew Josten
+ */
+public class KmacProvider extends Provider {
+	private static final long serialVersionUID = 1L;
+
+	@SuppressWarnings("deprecation")
+	public KmacProvider() {
+		super("KMAC", 1.0, "cSHAKE256 MessageDigest; KMAC256 and KMACXOF256 Mac");
+		put("MessageDigest.cSHAKE256", CShake256.class.getName());
+		put("Mac.KMAC256", Kmac256.class.getName());
+		put("Mac.KMACXOF256", KmacXof256.class.getName());
+	}
+
+	/**
+	 * Mac parameters: the customization string S and the output length in bits (default 512)
+	 */
+	public static final class Customization implements AlgorithmParameterSpec {
+		private final String S;
+		private final int L;
+
+		public Customization(String S) {
+			this(S, 512);
+		}
+
+		public Customization(String S, int L) {
+			if(L <= 0 || L % 8 != 0) {
+				throw new IllegalArgumentException("L must be a positive multiple of 8");
+			}
+			this.S = S;
+			this.L = L;
+		}
+
+		public String getS() {return S;}
+		public int getL() {return L;}
+	}
+
+	/**
+	 * cSHAKE256 with empty N and S and 512 bits of output, i.e. SHAKE256: X || 1111 || pad10*1.
+	 * The padding is absorbed here as whole blocks, so the sponge's own padding (none for input
+	 * that fills its blocks) never applies and every input has exactly one digest.
+	 */
+	public static final class CShake256 extends MessageDigestSpi implements Cloneable {
+		private static final int RATE = 136;
+		private KeccakSponge sponge = new KeccakSponge(8 * RATE);
+		//bytes absorbed into the current block
+		private int pos;
+		private final byte[] one = new byte[1];
+
+		@Override
+		protected int engineGetDigestLength() {
+			return 64;
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			one[0] = input;
+			engineUpdate(one, 0, 1);
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			sponge.absorb(input, offset, len);
+			pos = (pos + len) % RATE;
+		}
+
+		@Override
+		protected void engineUpdate(ByteBuffer input) {
+			pos = (pos + input.remaining()) % RATE;
+			sponge.absorb(input);
+		}
+
+		@Override
+		protected byte[] engineDigest() {
+			//the SHAKE suffix 1111, then pad10*1 to the end of the block (0x9F if only one byte is left)
+			byte[] pad = new byte[RATE - pos];
+			pad[0] = 0x1F;
+			pad[pad.length - 1] |= (byte) 0x80;
+			sponge.absorb(pad);
+			byte[] h = sponge.squeeze(512);
+			engineReset();
+			return h;
+		}
+
+		@Override
+		protected void engineReset() {
+			sponge = new KeccakSponge(8 * RATE);
+			pos = 0;
+		}
+
+		@Override
+		public Object clone() throws CloneNotSupportedException {
+			CShake256 c = new CShake256();
+			c.sponge = sponge.copy();
+			c.pos = pos;
+			return c;
+		}
+	}
+
+	/**
+	 * Shared by both Macs. The keyed state is kept, so reset and the next message start from a copy
+	 * of it rather than re-absorbing the key block.
+	 */
+	static abstract class KmacSpi extends MacSpi implements Cloneable {
+		private final boolean xof;
+		private KMACStream keyed;
+		private KMACStream current;
+		private int L = 512;
+		private byte[] one = new byte[1];
+
+		KmacSpi(boolean xof) {
+			this.xof = xof;
+		}
+
+		@Override
+		protected int engineGetMacLength() {
+			return L / 8;
+		}
+
+		@Override
+		protected void engineInit(Key key, AlgorithmParameterSpec params) throws InvalidKeyException, InvalidAlgorithmParameterException {
+			if(key == null || key.getEncoded() == null) {
+				throw new InvalidKeyException("The key must have an encoded form");
+			}
+			String S = "";
+			L = 512;
+			if(params instanceof Customization) {
+				S = ((Customization) params).getS();
+				L = ((Customization) params).getL();
+			}
+			else if(params != null) {
+				throw new InvalidAlgorithmParameterException("Expected a KmacProvider.Customization");
+			}
+			keyed = KMACStream.standard(key.getEncoded(), S, xof ? 0 : L);
+			current = keyed.copy();
+		}
+
+		@Override
+		protected void engineUpdate(byte input) {
+			one[0] = input;
+			current.update(one, 0, 1);
+		}
+
+		@Override
+		protected void engineUpdate(byte[] input, int offset, int len) {
+			current.update(input, offset, len);
+		}
+
+		@Override
+		protected void engineUpdate(ByteBuffer input) {
+			current.update(input);
+		}
+
+		@Override
+		protected byte[] engineDoFinal() {
+			byte[] t = current.digest(L);
+			engineReset();
+			return t;
+		}
+
+		@Override
+		protected void engineReset() {
+			current = keyed.copy();
+		}
+
+		@Override
+		public Object clone() throws CloneNotSupportedException {
+			KmacSpi c = (KmacSpi) super.clone();
+			c.current = current.copy();
+			c.one = new byte[1];
+			return c;
+		}
+	}
+
+	public static final class Kmac256 extends KmacSpi {
+		public Kmac256() {
+			super(false);
+		}
+	}
+
+	public static final class KmacXof256 extends KmacSpi {
+		public KmacXof256() {
+			super(true);
+		}
+	}
+}
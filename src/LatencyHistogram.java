@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the style of HdrHistogram: log-linear buckets with 16 sub-buckets per power of two,
+ * so every recorded value is kept to within about 6%. Buckets are fixed when the histogram is made,
+ * so record takes no locks and allocates nothing, and a percentile is one pass over the buckets.
+ *
+ * @author Andrew Josten
+ */
+public class LatencyHistogram {
+	//4 bits of precision below the leading bit
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+	//values 0..15 get a bucket each, then 16 buckets for each magnitude 2^4..2^62
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records one value, e.g. a duration in nanoseconds. Negative values count as 0.
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * The smallest bucket value that at least percentile% of the recorded values are at or below
+	 * @param percentile from 0 to 100
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if(n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= target) {
+				return Math.min(highestInBucket(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+
+	private static int bucket(long v) {
+		if(v < SUB) {
+			return (int) v;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (magnitude - SUB_BITS)) & (SUB - 1);
+		return (magnitude - SUB_BITS + 1) * SUB + sub;
+	}
+
+	private static long highestInBucket(int i) {
+		if(i < SUB) {
+			return i;
+		}
+		int magnitude = i / SUB + SUB_BITS - 1;
+		long sub = i % SUB;
+		return ((SUB + sub + 1) << (magnitude - SUB_BITS)) - 1;
+	}
+}
@@ -1,11 +1,19 @@
-import java.util.Arrays;
 import java.util.Scanner;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 
@@ -18,7 +26,15 @@ public class Main {
 	static KmacFunctions kmac;
 	static EcurveFunctions ec;	
 	
-	public static void main(String args[]) throws IOException {
+	public static void main(String args[]) throws IOException, InterruptedException {
+		if(Boolean.getBoolean("cryptoapp.jmx")) {
+			CryptoMetrics.register();
+		}
+		//Arguments given: run them without prompting (see BatchRunner)
+		if(args.length > 0) {
+			System.exit(BatchRunner.run(args));
+		}
+		
 		kmac = new KmacFunctions();
 		ec = new EcurveFunctions();	
 		
@@ -53,118 +69,256 @@ public class Main {
 			byte[] msg = new byte[] {};
 			byte[] pw = new byte[] {};
 			String outputFile = "out.txt";
-			String[] fileArgs;
+			String[] fileArgs = new String[] {};
 			
-			if(params[0].equals("kmac")) {//KMAC functions
-				//get msg and passphrase input (if not plain hash)
-				if(params[1].equals("plainhash")) {
-					System.out.print("[Message.txt] [Output.txt]\n>");
-					next = sc.nextLine();
-					fileArgs = next.split("\\s+");
-					msg = readFile(fileArgs[0]);
-					outputFile = fileArgs[1];
-				}
-				else if(params[1].equals("authentication") || params[1].equals("encrypt") || params[1].equals("decrypt")) {
-					System.out.print("[Message.txt] [Passphrase.txt] [Output.txt]\n>");
-					next = sc.nextLine();
-					fileArgs = next.split("\\s+");
-					msg = readFile(fileArgs[0]);
-					pw = readFile(fileArgs[1]);
-					outputFile = fileArgs[2];
-				}
-				else {
-					System.out.println("Bad input: unrecognized function in 2nd arguement");
-				}
-				
-				switch(params[1]) {
-					case "plainhash":
-						outFile(kmac.cryptographicHash(msg), outputFile);
-						break;
-					case "authentication":
-						outFile(kmac.authenticationTag(msg, pw), outputFile);
-						break;
-					case "encrypt":
-						outFile(kmac.encrypt(msg, pw), outputFile);
-						break;
-					case "decrypt":
-						outFile(kmac.decrypt(msg, pw), outputFile);
-						break;
-				}
-			}
-			else if(params[0].equals("ec")){//EC functions
-				switch(params[1]) {
-					case "keypair":						
-						System.out.println("(Following encryption/decryption will be done under this key pair unless called again)");
-						System.out.print("[Passphrase.txt] [Output.txt]\n>");
+			//a missing or unreadable file ends the command, not the app
+			try {
+				if(params[0].equals("kmac")) {//KMAC functions
+					//get msg and passphrase input (if not plain hash)
+					if(params[1].equals("plainhash")) {
+						System.out.print("[Message.txt or Directory] [Output.txt]\n>");
 						next = sc.nextLine();
 						fileArgs = next.split("\\s+");
-						msg = readFile(fileArgs[0]);
 						outputFile = fileArgs[1];
-						ec.KeyPair(msg);
-						
-						byte[] kp = concat(ec.getV().toBytes(), ec.getS().toByteArray());
-						outFile(kp, outputFile);
-						break;
-					case "encrypt":
-						System.out.print("(Uses previously generated keypair)\n[Message.txt] [Output.txt]\n>");
-						next = sc.nextLine();
-						fileArgs = next.split("\\s+");
-						msg = readFile(fileArgs[0]);
-						outputFile = fileArgs[1];
-						
-						CurveGram g = ec.encrypt(msg);
-
-						outFile(g.toBytes(), outputFile);
-						break;
-					case "decrypt":
-						System.out.print("[Cryptogram.txt] [Passphrase.txt] [Output.txt]\n>");
-						next = sc.nextLine();
-						fileArgs = next.split("\\s+");
-						msg = readFile(fileArgs[0]);
-						pw = readFile(fileArgs[1]);
-						outputFile = fileArgs[2];						
-						
-						//parse curve gram
-						Ecurve Z = Ecurve.unByte(Arrays.copyOfRange(msg, 0, BigInteger.valueOf(2L).pow(521).subtract(BigInteger.ONE).toByteArray().length*2));
-				        byte[] a = Arrays.copyOfRange(msg, BigInteger.valueOf(2L).pow(521).subtract(BigInteger.ONE).toByteArray().length*2, msg.length - 64);
-				        byte[] b = Arrays.copyOfRange(msg, msg.length - 64, msg.length);
-				        
-				        outFile(ec.decrypt(new CurveGram(Z,a,b), pw), outputFile);
-						break;
-					case "sign":
+					
+						//a directory gets a manifest of every file's hash plus a Merkle root
+						if(new File(fileArgs[0]).isDirectory()) {
+							TreeHasher tree = new TreeHasher();
+							List<TreeHasher.Entry> entries;
+							try {
+								entries = tree.hash(new File(fileArgs[0]).toPath());
+							}
+							finally {
+								tree.shutdown();
+							}
+							byte[] root = TreeHasher.merkleRoot(entries);
+							outFile(TreeHasher.manifest(entries, root).getBytes(StandardCharsets.UTF_8), outputFile);
+							System.out.println(entries.size() + " files, merkle root " + TreeHasher.toHex(root));
+							continue;
+						}
+					}
+					else if(params[1].equals("authentication") || params[1].equals("encrypt") || params[1].equals("decrypt")) {
 						System.out.print("[Message.txt] [Passphrase.txt] [Output.txt]\n>");
 						next = sc.nextLine();
 						fileArgs = next.split("\\s+");
-						msg = readFile(fileArgs[0]);
 						pw = readFile(fileArgs[1]);
 						outputFile = fileArgs[2];
-						outFile(ec.sigGenerator(pw, msg), outputFile);
-						break;
-					case "verify":
-						System.out.print("[Signature.txt] [MessageByteArray.txt]\n>");
-						next = sc.nextLine();
-						fileArgs = next.split("\\s+");
-						msg = readFile(fileArgs[0]);
-						pw = readFile(fileArgs[1]);
+					}
+					else {
+						System.out.println("Bad input: unrecognized function in 2nd arguement");
+					}
+				
+					switch(params[1]) {
+						//the message is streamed through PipelinedIO, so reading, hashing and writing overlap
+						case "plainhash":
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath())) {
+								outFile(kmac.cryptographicHash(in), outputFile);
+							}
+							break;
+						case "authentication":
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath())) {
+								outFile(kmac.authenticationTag(in, pw), outputFile);
+							}
+							break;
+						case "encrypt":
+							//streamed into a container (see CryptoFile)
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath());
+									OutputStream out = PipelinedIO.write(new File(outputFile).toPath())) {
+								CryptoFile.encrypt(kmac, in, out, pw, true);
+							}
+							System.out.println("File " + outputFile + " successfully written to.");
+							break;
+						case "decrypt":
+							if(CryptoFile.isContainer(new File(fileArgs[0]).toPath())) {
+								boolean valid;
+								try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath());
+										OutputStream out = PipelinedIO.write(new File(outputFile).toPath())) {
+									valid = CryptoFile.decrypt(kmac, in, out, pw);
+								}
+								if(valid) {
+									System.out.println("File " + outputFile + " successfully written to.");
+								}
+								else {
+									System.out.println("Failed to decrypt");
+									new File(outputFile).delete();//never leave unauthenticated output behind
+								}
+							}
+							else {//bare z || c || t
+								outFile(kmac.decrypt(readFile(fileArgs[0]), pw), outputFile);
+							}
+							break;
+					}
+				}
+				else if(params[0].equals("ec")){//EC functions
+					switch(params[1]) {
+						case "keypair":						
+							System.out.println("(Following encryption/decryption will be done under this key pair unless called again)");
+							System.out.print("[Passphrase.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+							outputFile = fileArgs[1];
+							ec.KeyPair(msg);
 						
-						//parse sig
-						byte[][] hz = new byte[2][];
-						hz[0] = Arrays.copyOfRange(msg, 0, 130/2);
-						hz[1] = Arrays.copyOfRange(msg, 130/2, 130);
+							outFile(CryptoFile.keyPair(ec.getKey().getPublicKey(), ec.getS()), outputFile);
+							break;
+						case "encrypt":
+							System.out.print("(Uses previously generated keypair)\n[Message.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							outputFile = fileArgs[1];
 						
-						if(ec.verify(hz, pw)) {
-							System.out.println("Signature is verified!");
-						}
-						else {
-							System.out.println("Signature failed");
-						}
-						break;
-					default:
-						System.out.println("Bad input: unrecognized function in 2nd arguement");
+							//streamed, so the message is never held whole
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath());
+									OutputStream out = PipelinedIO.write(new File(outputFile).toPath())) {
+								CryptoFile.encrypt(ec, in, out, ec.getKey().getPublicKey(), true);
+							}
+							System.out.println("File " + outputFile + " successfully written to.");
+							break;
+						case "decrypt":
+							System.out.print("[Cryptogram.txt] [Passphrase.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							pw = readFile(fileArgs[1]);
+							outputFile = fileArgs[2];						
+						
+							boolean valid;
+							boolean container = CryptoFile.isContainer(new File(fileArgs[0]).toPath());
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath());
+									OutputStream out = PipelinedIO.write(new File(outputFile).toPath())) {
+								valid = container ? CryptoFile.decrypt(ec, in, out, ec.deriveKey(pw))
+										: ec.decrypt(in, out, ec.deriveKey(pw));//bare Z || c || t
+							}
+							if(valid) {
+								System.out.println("File " + outputFile + " successfully written to.");
+							}
+							else {
+								//the tag did not match, so nothing that was written can be trusted
+								System.out.println("Failed to decrypt: Ecurve");
+								new File(outputFile).delete();
+							}
+							break;
+						case "sign":
+							System.out.print("[Message.txt] [Passphrase.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+							pw = readFile(fileArgs[1]);
+							outputFile = fileArgs[2];
+							outFile(CryptoFile.signature(ec.sigGenerator(pw, msg), false), outputFile);
+							break;
+						case "verify":
+							System.out.print("[Signature.txt] [MessageByteArray.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+							pw = readFile(fileArgs[1]);
+						
+							//parse sig, container or bare h || z
+							byte[][] hz = CryptoFile.readSignature(msg, CryptoFile.Algorithm.SIGNATURE);
+						
+							if(ec.verify(hz, pw)) {
+								System.out.println("Signature is verified!");
+							}
+							else {
+								System.out.println("Signature failed");
+							}
+							break;
+						case "multiencrypt"://one cryptogram for several recipients
+							System.out.print("[Message.txt] [Output.txt] [PublicKey1.txt or Keyring#fingerprint] [PublicKey2.txt] ...\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+							outputFile = fileArgs[1];
+						
+							//a key or keypair file, or a key in a keyring (which may come with its table);
+							//each keyring is opened once for the command, since loading a key checks its whole table
+							EcPublicKey[] recipients = new EcPublicKey[fileArgs.length - 2];
+							Map<String, Keyring> rings = new HashMap<String, Keyring>();
+							try {
+								for(int i = 0; i < recipients.length; i++) {
+									String name = fileArgs[i + 2];
+									if(Keyring.isReference(name)) {
+										int hash = name.lastIndexOf('#');
+										Keyring ring = rings.get(name.substring(0, hash));
+										if(ring == null) {
+											ring = Keyring.open(new File(name.substring(0, hash)).toPath());
+											rings.put(name.substring(0, hash), ring);
+										}
+										recipients[i] = ring.find(name.substring(hash + 1));
+									}
+									else {
+										recipients[i] = CryptoFile.readPublicKey(readFile(name));
+									}
+								}
+							}
+							finally {
+								for(Keyring ring : rings.values()) {
+									ring.close();
+								}
+							}
+							outFile(CryptoFile.multiRecipient(ec.encrypt(msg, recipients)), outputFile);
+							break;
+						case "keyring"://add public keys, with their tables, to a keyring file
+							System.out.print("[Keyring.krg] [PublicKey1.txt] [PublicKey2.txt] ...\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+						
+							List<EcPublicKey> added = new ArrayList<EcPublicKey>();
+							for(int i = 1; i < fileArgs.length; i++) {
+								added.add(CryptoFile.readPublicKey(readFile(fileArgs[i])));
+								System.out.println(TreeHasher.toHex(added.get(i - 1).fingerprint()) + "  " + fileArgs[i]);
+							}
+							int total = Keyring.add(new File(fileArgs[0]).toPath(), added, true);
+							System.out.println(fileArgs[0] + " now holds " + total + " keys");
+							break;
+						case "multidecrypt":
+							System.out.print("[Cryptogram.txt] [Passphrase.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+							pw = readFile(fileArgs[1]);
+							outputFile = fileArgs[2];
+							outFile(ec.decrypt(CryptoFile.readMultiRecipient(msg), ec.deriveKey(pw)), outputFile);
+							break;
+						case "signfile"://prehash mode, the file is streamed instead of read whole
+							System.out.print("[Message.txt] [Passphrase.txt] [Output.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							pw = readFile(fileArgs[1]);
+							outputFile = fileArgs[2];
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[0]).toPath())) {
+								outFile(CryptoFile.signature(ec.sigGeneratorPrehashed(ec.deriveKey(pw), in), true), outputFile);
+							}
+							break;
+						case "verifyfile":
+							System.out.print("(Uses previously generated keypair)\n[Signature.txt] [Message.txt]\n>");
+							next = sc.nextLine();
+							fileArgs = next.split("\\s+");
+							msg = readFile(fileArgs[0]);
+						
+							try(InputStream in = PipelinedIO.read(new File(fileArgs[1]).toPath())) {
+								if(ec.verifyPrehashed(CryptoFile.readSignature(msg, CryptoFile.Algorithm.PREHASH_SIGNATURE), in, ec.getKey().getPublicKey())) {
+									System.out.println("Signature is verified!");
+								}
+								else {
+									System.out.println("Signature failed");
+								}
+							}
+							break;
+						default:
+							System.out.println("Bad input: unrecognized function in 2nd arguement");
+					}
+				}
+				else {
+					System.out.println("Bad input: unrecognized algorithm type");
 				}
 			}
-			else {
-				System.out.println("Bad input: unrecognized algorithm type");
+			catch(NoSuchFileException e) {
+				System.out.println("File not found: " + e.getFile());
+			}
+			catch(IOException | IllegalArgumentException e) {//IllegalArgumentException: no such key in a keyring
+				System.out.println("Failed: " + e.getMessage());
 			}
 		}
 		System.out.println("Quitting...");		
@@ -177,14 +331,11 @@ public class Main {
 	 * @throws IOException 
 	 */
 	private static byte[] readFile(String name) throws IOException {
-		FileInputStream bytesOut = null;
-		byte[] r = null;
+		File file = new File(name);
+		byte[] r = new byte[(int) file.length()];
 		
-		try {
-			File file = new File(name);
-			r = new byte[(int) file.length()];
-			bytesOut = new FileInputStream(file);
-			bytesOut.read(r);
+		try(DataInputStream bytesOut = new DataInputStream(new FileInputStream(file))) {
+			bytesOut.readFully(r);
 			//System.out.println(Arrays.toString(r));
         } 
 		catch (FileNotFoundException e) {
@@ -201,9 +352,7 @@ public class Main {
 	 * @throws IOException
 	 */
 	private static void outFile(byte[] out, String name) throws IOException {
-		FileOutputStream bytesOut = null;
-		try {
-            bytesOut = new FileOutputStream(name);//the file we are writing to
+		try(FileOutputStream bytesOut = new FileOutputStream(name)) {//the file we are writing to
             bytesOut.write(out);
             System.out.println("File " + name + " successfully written to.");
         } 
@@ -0,0 +1,336 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Merkle tree over fixed size chunks of one large file, kept on disk next to it,
+ * so a file that changes in a few places is fingerprinted again by hashing only those chunks.
+ *
+ *  leaf = KMACXOF256("", chunk, 512, "FL")
+ *  node = KMACXOF256("", left || right, 512, "FN"), an unpaired node moves up unchanged
+ *  root = KMACXOF256("", top || length (8 bytes), 512, "FR")
+ *
+ * After markDirty for the ranges that were written, update() rehashes just those chunks
+ * (in parallel) and the nodes on their paths to the top, so the cost follows the size of
+ * the change rather than the size of the file. When the changed ranges are not known,
+ * rescan() rehashes every chunk in parallel and still only recomputes the paths above
+ * chunks whose hash changed. A change of length is handled either way.
+ *
+ * Tree file: "KMTR" || version (1 byte) || 0 0 0 || chunk size (4 bytes) || file length (8 bytes)
+ *            || every node, 64 bytes each, leaves first and then each level up
+ *
+ * @author Andrew Josten
+ */
+public class MerkleFile {
+	private static final byte[] MAGIC = {'K', 'M', 'T', 'R'};
+	public static final int VERSION = 1;
+	public static final int DEFAULT_CHUNK = 1 << 20;
+	private static final int NODE_LENGTH = 64;
+	private static final int HEADER_LENGTH = 20;
+
+	private final int chunk;
+	private long length;
+	//levels[0] are the leaves, the last level holds the single top node
+	private byte[][][] levels;
+	//chunks to rehash on the next update
+	private final BitSet dirty = new BitSet();
+	private int leavesHashed;
+
+	//empty key blocks already absorbed, copied for every hash
+	private static final KMACStream LEAF = new KMACStream(new byte[] {}, "FL");
+	private static final KMACStream NODE = new KMACStream(new byte[] {}, "FN");
+	private static final KMACStream ROOT = new KMACStream(new byte[] {}, "FR");
+
+	private MerkleFile(int chunk, long length, byte[][][] levels) {
+		this.chunk = chunk;
+		this.length = length;
+		this.levels = levels;
+	}
+
+	/**
+	 * Hashes all of file, DEFAULT_CHUNK bytes per leaf
+	 */
+	public static MerkleFile build(Path file) throws IOException {
+		return build(file, DEFAULT_CHUNK);
+	}
+
+	/**
+	 * Hashes all of file, chunk bytes per leaf
+	 */
+	public static MerkleFile build(Path file, int chunk) throws IOException {
+		if(chunk <= 0) {
+			throw new IllegalArgumentException("The chunk size must be positive");
+		}
+		MerkleFile tree = new MerkleFile(chunk, 0, new byte[][][] {{}});
+		tree.rescan(file);
+		return tree;
+	}
+
+	/**
+	 * The tree file conventionally kept for file
+	 */
+	public static Path treeFileFor(Path file) {
+		return file.resolveSibling(file.getFileName() + ".mtree");
+	}
+
+	/**
+	 * True if the file starts with the tree file magic, reading only its first bytes
+	 */
+	public static boolean isTreeFile(Path file) throws IOException {
+		byte[] head = new byte[MAGIC.length];
+		try(InputStream in = Files.newInputStream(file)) {
+			return StreamCipher.readFully(in, head, 0, head.length) == head.length && Arrays.equals(head, MAGIC);
+		}
+	}
+
+	/*Updating*/
+
+	/**
+	 * Records that length bytes starting at offset were written, to be rehashed by the next update
+	 */
+	public void markDirty(long offset, long length) {
+		if(offset < 0 || length < 0) {
+			throw new IllegalArgumentException("Bad range");
+		}
+		if(length == 0) {
+			return;
+		}
+		long last = (offset + length - 1) / chunk;
+		if(last >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Range past the largest file this tree can cover");
+		}
+		dirty.set((int) (offset / chunk), (int) last + 1);
+	}
+
+	/**
+	 * Brings the tree up to date with file, rehashing only the chunks marked dirty
+	 * (and the last chunk if the length changed)
+	 * @return the new root
+	 */
+	public byte[] update(Path file) throws IOException {
+		return refresh(file, false);
+	}
+
+	/**
+	 * Rehashes every chunk of file, for when the changed ranges are not known
+	 * @return the new root
+	 */
+	public byte[] rescan(Path file) throws IOException {
+		return refresh(file, true);
+	}
+
+	private byte[] refresh(Path file, boolean all) throws IOException {
+		try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			long newLength = in.size();
+			int oldLeaves = levels[0].length;
+			long leaves = Math.max(1, (newLength + chunk - 1) / chunk);
+			if(leaves > Integer.MAX_VALUE) {
+				throw new IOException("Too many chunks; use a larger chunk size");
+			}
+			int n = (int) leaves;
+
+			BitSet rehash = all ? fill(n) : dirty.get(0, n);
+			if(newLength != length) {
+				//the old last chunk may have grown or shrunk, and every chunk past it is new
+				rehash.set(Math.max(0, Math.min(oldLeaves, n) - 1), n);
+			}
+			byte[][] leafHashes = Arrays.copyOf(levels[0], n);
+			int[] todo = rehash.stream().toArray();
+			try {
+				IntStream.of(todo).parallel().forEach(i -> leafHashes[i] = leaf(in, i, newLength));
+			}
+			catch(UncheckedIOException e) {
+				throw e.getCause();
+			}
+			leavesHashed = todo.length;
+
+			//only leaves whose hash actually changed move their path up
+			BitSet changed = new BitSet(n);
+			for(int i : todo) {
+				if(i >= oldLeaves || !Arrays.equals(leafHashes[i], levels[0][i])) {
+					changed.set(i);
+				}
+			}
+			levels = rebuild(leafHashes, changed, n != oldLeaves);
+			length = newLength;
+			dirty.clear();
+			return root();
+		}
+	}
+
+	/**
+	 * Recomputes the parents of changed nodes, level by level. If the number of leaves changed
+	 * the last node of every level is recomputed too, since only the right edge pairs differently.
+	 */
+	private byte[][][] rebuild(byte[][] leaves, BitSet changed, boolean resized) {
+		int height = 1;
+		for(int w = leaves.length; w > 1; w = (w + 1) / 2) {
+			height++;
+		}
+		byte[][][] up = new byte[height][][];
+		up[0] = leaves;
+		for(int l = 1; l < height; l++) {
+			byte[][] below = up[l - 1];
+			int width = (below.length + 1) / 2;
+			byte[][] old = l < levels.length ? levels[l] : new byte[0][];
+			byte[][] level = Arrays.copyOf(old, width);
+
+			BitSet parents = new BitSet(width);
+			for(int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+				parents.set(i / 2);
+			}
+			if(resized || old.length != width) {
+				parents.set(width - 1);
+			}
+			for(int j = old.length; j < width; j++) {
+				parents.set(j);
+			}
+			int[] todo = parents.stream().toArray();
+			IntStream work = IntStream.of(todo);
+			if(todo.length > 64) {
+				work = work.parallel();
+			}
+			work.forEach(j -> level[j] = 2 * j + 1 < below.length ? node(below[2 * j], below[2 * j + 1]) : below[2 * j]);
+			up[l] = level;
+			changed = parents;
+		}
+		return up;
+	}
+
+	private byte[] leaf(FileChannel in, int i, long fileLength) {
+		long start = (long) i * chunk;
+		int len = (int) Math.max(0, Math.min(chunk, fileLength - start));
+		ByteBuffer b = ByteBuffer.allocate(len);
+		try {
+			while(b.hasRemaining()) {
+				if(in.read(b, start + b.position()) == -1) {
+					throw new IOException("File shrank while being hashed");
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		((Buffer) b).flip();
+		KMACStream h = LEAF.copy();
+		h.update(b);
+		return h.digest(512);
+	}
+
+	private static byte[] node(byte[] left, byte[] right) {
+		KMACStream h = NODE.copy();
+		h.update(left);
+		h.update(right);
+		return h.digest(512);
+	}
+
+	private static BitSet fill(int n) {
+		BitSet b = new BitSet(n);
+		b.set(0, n);
+		return b;
+	}
+
+	/*Results*/
+
+	/**
+	 * KMACXOF256("", top || length, 512, "FR")
+	 */
+	public byte[] root() {
+		KMACStream h = ROOT.copy();
+		h.update(levels[levels.length - 1][0]);
+		h.update(ByteBuffer.allocate(8).putLong(0, length));
+		return h.digest(512);
+	}
+
+	public long getLength() {return length;}
+	public int getChunkSize() {return chunk;}
+	public int getLeafCount() {return levels[0].length;}
+	/**
+	 * Chunks read and hashed by the last update, rescan or build
+	 */
+	public int getLeavesHashed() {return leavesHashed;}
+
+	/*Persistence*/
+
+	/**
+	 * Writes the tree, replacing treeFile only once the new one is complete
+	 */
+	public void save(Path treeFile) throws IOException {
+		Path partial = treeFile.resolveSibling(treeFile.getFileName() + ".part");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16))) {
+			out.write(MAGIC);
+			out.write(new byte[] {(byte) VERSION, 0, 0, 0});
+			out.writeInt(chunk);
+			out.writeLong(length);
+			for(byte[][] level : levels) {
+				for(byte[] node : level) {
+					out.write(node);
+				}
+			}
+		}
+		Files.move(partial, treeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a tree written by save
+	 */
+	public static MerkleFile load(Path treeFile) throws IOException {
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(treeFile), 1 << 16))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not a Merkle tree file: " + treeFile);
+			}
+			int version = in.readUnsignedByte();
+			if(version > VERSION) {
+				throw new IOException("Tree version " + version + " is newer than this reader (" + VERSION + ")");
+			}
+			in.skipBytes(3);
+			int chunk = in.readInt();
+			long length = in.readLong();
+			long leaves = Math.max(1, (length + chunk - 1) / Math.max(1, chunk));
+			if(chunk <= 0 || length < 0 || leaves > Integer.MAX_VALUE) {
+				throw new IOException("Bad tree header");
+			}
+
+			int height = 1;
+			long nodes = leaves;
+			for(long w = leaves; w > 1; w = (w + 1) / 2) {
+				height++;
+				nodes += (w + 1) / 2;
+			}
+			//the header decides how much is allocated, so it has to agree with the file first
+			if(Files.size(treeFile) != HEADER_LENGTH + NODE_LENGTH * nodes) {
+				throw new IOException("Tree file is " + Files.size(treeFile) + " bytes, its header needs "
+						+ (HEADER_LENGTH + NODE_LENGTH * nodes));
+			}
+			byte[][][] levels = new byte[height][][];
+			int width = (int) leaves;
+			for(int l = 0; l < height; l++) {
+				levels[l] = new byte[width][NODE_LENGTH];
+				for(byte[] node : levels[l]) {
+					in.readFully(node);
+				}
+				width = (width + 1) / 2;
+			}
+			if(in.read() != -1) {
+				throw new IOException("Bytes after the last node");
+			}
+			return new MerkleFile(chunk, length, levels);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Cryptogram for several recipients at once.
+ * The message is encrypted once, symmetrically, under a random 64 byte content key
+ * (the z||c||t of KmacFunctions.encrypt). Only that key is encrypted per recipient,
+ * as a small CurveGram tagged with the recipient's public key fingerprint.
+ *
+ * Layout: N || (fingerprint || wrap) * N || payload
+ * with N a 4 byte count, 32 byte fingerprints and fixed length wraps.
+ *
+ * @author Andrew Josten
+ */
+public class MultiGram {
+	//Wrapped content key: compressed Z || 64 byte c || 64 byte t
+	public static final int WRAP_LENGTH = Ecurve.COMPRESSED_LENGTH + 64 + 64;
+	public static final int FINGERPRINT_LENGTH = 32;
+
+	byte[][] fingerprints;
+	CurveGram[] wraps;
+	byte[] payload;
+
+	public MultiGram(byte[][] fingerprints, CurveGram[] wraps, byte[] payload) {
+		this.fingerprints = fingerprints;
+		this.wraps = wraps;
+		this.payload = payload;
+	}
+
+	/**
+	 * Finds the content key wrapped for a recipient
+	 * @param fingerprint the recipient's public key fingerprint
+	 * @return the wrap, or null if the key is not a recipient
+	 */
+	public CurveGram wrapFor(byte[] fingerprint) {
+		for(int i = 0; i < fingerprints.length; i++) {
+			if(Arrays.equals(fingerprints[i], fingerprint)) {
+				return wraps[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Transforms this cryptogram into a byte array to be printed to a file
+	 */
+	public byte[] toBytes() {
+		int n = wraps.length;
+		ByteBuffer b = ByteBuffer.allocate(4 + n * (FINGERPRINT_LENGTH + WRAP_LENGTH) + payload.length);
+		b.putInt(n);
+		for(int i = 0; i < n; i++) {
+			b.put(fingerprints[i]);
+			b.put(wraps[i].toBytes());
+		}
+		b.put(payload);
+		return b.array();
+	}
+
+	/**
+	 * Parses a cryptogram written by toBytes
+	 * @throws IllegalArgumentException if the header does not fit the data
+	 */
+	public static MultiGram fromBytes(byte[] gram) {
+		ByteBuffer b = ByteBuffer.wrap(gram);
+		int n = b.getInt();
+		if(n < 0 || (long) n * (FINGERPRINT_LENGTH + WRAP_LENGTH) > b.remaining()) {
+			throw new IllegalArgumentException("Bad recipient count");
+		}
+
+		byte[][] fingerprints = new byte[n][FINGERPRINT_LENGTH];
+		CurveGram[] wraps = new CurveGram[n];
+		byte[] wrap = new byte[WRAP_LENGTH];
+		for(int i = 0; i < n; i++) {
+			b.get(fingerprints[i]);
+			b.get(wrap);
+			wraps[i] = CurveGram.fromBytes(wrap);
+		}
+		byte[] payload = new byte[b.remaining()];
+		b.get(payload);
+		return new MultiGram(fingerprints, wraps, payload);
+	}
+}
@@ -0,0 +1,164 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * KeccakSponge with its state in a direct buffer instead of the Java heap, so keyed states
+ * are never copied around by the garbage collector, and input and output can be xored
+ * straight between the state and direct buffers from NIO channels.
+ * For the same bytes it gives exactly the output of KeccakSponge, padding included.
+ *
+ * Input is xored into the state as it arrives (there is no separate block buffer) and output
+ * is read straight out of it. close() zeroes the state; using the sponge afterwards throws.
+ *
+ * @author Andrew Josten
+ */
+public class OffHeapSponge implements Sponge, AutoCloseable {
+	//25 lanes, then SHA3.keccakPerms(ByteBuffer)'s scratch
+	private static final int STATE_BYTES = 240;
+
+	private final int rateBytes;
+	private final ByteBuffer state;
+
+	//Absorbing: bytes of the current block already xored in
+	private int pos;
+
+	//Squeezing: how much of the current output block has been handed out
+	private boolean squeezing;
+	private int outPos;
+	private boolean closed;
+
+	/**
+	 * @param rate the rate in bits (1088 for the 256 bit functions)
+	 */
+	public OffHeapSponge(int rate) {
+		rateBytes = rate / 8;
+		state = ByteBuffer.allocateDirect(STATE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	//an independent copy of o's state
+	private OffHeapSponge(OffHeapSponge o) {
+		this(o.rateBytes * 8);
+		ByteBuffer from = o.state.duplicate();
+		((Buffer) from).clear();
+		state.put(from);
+		((Buffer) state).clear();
+		pos = o.pos;
+		squeezing = o.squeezing;
+		outPos = o.outPos;
+	}
+
+	/**
+	 * Forks the sponge into a new direct buffer
+	 */
+	public OffHeapSponge copy() {
+		open();
+		return new OffHeapSponge(this);
+	}
+
+	public void absorb(byte[] b, int off, int len) {
+		absorb(ByteBuffer.wrap(b, off, len));
+	}
+
+	public void absorb(byte[] b) {
+		absorb(b, 0, b.length);
+	}
+
+	/**
+	 * Xors the remaining bytes of b into the state, eight at a time where they line up with a lane.
+	 * b's position is advanced to its limit.
+	 */
+	public void absorb(ByteBuffer b) {
+		open();
+		if(squeezing) {
+			throw new IllegalStateException("Cannot absorb after squeezing");
+		}
+		CryptoMetrics.bytesAbsorbed.add(b.remaining());
+		SpongeEvent event = SpongeEvent.start();
+		int total = b.remaining();
+		//read lanes little-endian whatever order the caller's buffer is in
+		ByteBuffer in = b.slice().order(ByteOrder.LITTLE_ENDIAN);
+		while(in.hasRemaining()) {
+			if(pos % 8 == 0 && in.remaining() >= 8) {
+				while(pos < rateBytes && in.remaining() >= 8) {
+					state.putLong(pos, state.getLong(pos) ^ in.getLong());
+					pos += 8;
+				}
+			}
+			else {
+				state.put(pos, (byte) (state.get(pos) ^ in.get()));
+				pos++;
+			}
+			if(pos == rateBytes) {
+				SHA3.keccakPerms(state);
+				pos = 0;
+			}
+		}
+		((Buffer) b).position(b.limit());
+		event.finish("absorb", total, 0);
+	}
+
+	public void squeeze(byte[] b, int off, int len) {
+		squeeze(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Squeezes dst.remaining() bytes of output into dst.
+	 * The first call pads the input the same way KeccakSponge does.
+	 */
+	public void squeeze(ByteBuffer dst) {
+		open();
+		if(!squeezing) {
+			//As in KeccakSponge, input that fills whole blocks gets no padding block
+			if(pos != 0) {
+				state.put(rateBytes - 1, (byte) (state.get(rateBytes - 1) ^ 128));
+				SHA3.keccakPerms(state);
+			}
+			squeezing = true;
+			outPos = 0;
+		}
+		CryptoMetrics.bytesSqueezed.add(dst.remaining());
+		SpongeEvent event = SpongeEvent.start();
+		int total = dst.remaining();
+		while(dst.hasRemaining()) {
+			if(outPos == rateBytes) {
+				SHA3.keccakPerms(state);
+				outPos = 0;
+			}
+			int n = Math.min(dst.remaining(), rateBytes - outPos);
+			ByteBuffer out = state.duplicate();
+			((Buffer) out).limit(outPos + n).position(outPos);
+			dst.put(out);
+			outPos += n;
+		}
+		event.finish("squeeze", 0, total);
+	}
+
+	/**
+	 * Squeezes outputBitLen bits of output
+	 */
+	public byte[] squeeze(int outputBitLen) {
+		byte[] Z = new byte[outputBitLen / 8];
+		squeeze(Z, 0, Z.length);
+		return Z;
+	}
+
+	/**
+	 * Zeroes the state. The buffer itself is freed when it is garbage collected.
+	 */
+	@Override
+	public void close() {
+		if(!closed) {
+			for(int i = 0; i < STATE_BYTES; i += 8) {
+				state.putLong(i, 0L);
+			}
+			closed = true;
+		}
+	}
+
+	private void open() {
+		if(closed) {
+			throw new IllegalStateException("Sponge was closed");
+		}
+	}
+}
@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * File streams over AsynchronousFileChannel with DEPTH buffers each, so the disk runs ahead of
+ * (or behind) the caller: while StreamCipher XORs block n, the read of block n+1 and the write
+ * of block n-1 are already in flight.
+ *
+ *  read(file)    starts reads of the first DEPTH blocks at once, and each block handed out
+ *                frees its buffer for the read DEPTH blocks further on
+ *  write(file)   each full block is written asynchronously; a buffer is only reused once its
+ *                write has finished, and close() waits for all of them
+ *
+ * Either side is a plain InputStream/OutputStream, so KmacFunctions, EcurveFunctions and
+ * CryptoFile use them unchanged.
+ *
+ * Buffers are flipped and cleared through Buffer, so a build with -target 8 on a newer JDK
+ * still links on Java 8 (ByteBuffer only overrides those methods from 9 on).
+ *
+ * @author Andrew Josten
+ */
+public class PipelinedIO {
+	//Bytes per read or write
+	public static final int BLOCK = 65536;
+	//Buffers per stream: one with the caller, the rest in flight
+	public static final int DEPTH = 3;
+
+	public static InputStream read(Path file) throws IOException {
+		return new ReadAhead(AsynchronousFileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Creates or truncates file
+	 */
+	public static OutputStream write(Path file) throws IOException {
+		return new WriteBehind(AsynchronousFileChannel.open(file, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	private static final class ReadAhead extends InputStream {
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer[] buffers = new ByteBuffer[DEPTH];
+		private final Future<?>[] reads = new Future<?>[DEPTH];
+		//file position of the next read to start
+		private long next;
+		//slot the caller is reading from
+		private int slot;
+		//that slot's buffer, null until its read has completed
+		private ByteBuffer current;
+		private boolean eof;
+
+		ReadAhead(AsynchronousFileChannel channel) {
+			this.channel = channel;
+			for(int i = 0; i < DEPTH; i++) {
+				buffers[i] = ByteBuffer.allocate(BLOCK);
+				start(i);
+			}
+		}
+
+		private void start(int i) {
+			((Buffer) buffers[i]).clear();
+			reads[i] = channel.read(buffers[i], next);
+			next += BLOCK;
+		}
+
+		/**
+		 * Waits for the block in slot, reading the rest of it if the channel returned less than a block
+		 * @return false at the end of the file
+		 */
+		private boolean take() throws IOException {
+			ByteBuffer b = buffers[slot];
+			long position = next - (long) DEPTH * BLOCK;
+			int n = (Integer) await(reads[slot]);
+			while(n > 0 && b.hasRemaining()) {
+				n = (Integer) await(channel.read(b, position + b.position()));
+			}
+			((Buffer) b).flip();
+			if(!b.hasRemaining()) {
+				return false;
+			}
+			current = b;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 255;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			if(current == null) {
+				if(eof || !take()) {
+					eof = true;
+					return -1;
+				}
+			}
+			int n = Math.min(len, current.remaining());
+			current.get(b, off, n);
+			if(!current.hasRemaining()) {
+				//a short block is the last one
+				boolean last = current.limit() < BLOCK;
+				current = null;
+				if(last) {
+					eof = true;
+				}
+				else {
+					start(slot);
+					slot = (slot + 1) % DEPTH;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private static final class WriteBehind extends OutputStream {
+		private final AsynchronousFileChannel channel;
+		private final ByteBuffer[] buffers = new ByteBuffer[DEPTH];
+		private final Future<?>[] writes = new Future<?>[DEPTH];
+		private final long[] positions = new long[DEPTH];
+		private long next;
+		private int slot;
+		private boolean closed;
+
+		WriteBehind(AsynchronousFileChannel channel) {
+			this.channel = channel;
+			for(int i = 0; i < DEPTH; i++) {
+				buffers[i] = ByteBuffer.allocate(BLOCK);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(closed) {
+				throw new IOException("Stream closed");
+			}
+			while(len > 0) {
+				ByteBuffer current = buffers[slot];
+				int n = Math.min(len, current.remaining());
+				current.put(b, off, n);
+				off += n;
+				len -= n;
+				if(!current.hasRemaining()) {
+					send();
+				}
+			}
+		}
+
+		/**
+		 * Starts the write of the current buffer and moves to the next one, waiting for its last write first
+		 */
+		private void send() throws IOException {
+			ByteBuffer b = buffers[slot];
+			((Buffer) b).flip();
+			positions[slot] = next;
+			next += b.remaining();
+			writes[slot] = channel.write(b, positions[slot]);
+			slot = (slot + 1) % DEPTH;
+			finish(slot);
+		}
+
+		/**
+		 * Waits for the write in slot i, writing whatever the channel left over, and empties its buffer
+		 */
+		private void finish(int i) throws IOException {
+			if(writes[i] != null) {
+				ByteBuffer b = buffers[i];
+				await(writes[i]);
+				while(b.hasRemaining()) {
+					await(channel.write(b, positions[i] + b.position()));
+				}
+				writes[i] = null;
+			}
+			((Buffer) buffers[i]).clear();
+		}
+
+		/**
+		 * Returns once everything written so far is in the file
+		 */
+		@Override
+		public void flush() throws IOException {
+			if(buffers[slot].position() > 0) {
+				send();
+			}
+			for(int i = 0; i < DEPTH; i++) {
+				if(writes[i] != null) {
+					finish(i);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			try {
+				flush();
+			}
+			finally {
+				closed = true;
+				channel.close();
+			}
+		}
+	}
+
+	private static Object await(Future<?> f) throws IOException {
+		try {
+			return f.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,154 @@
+import java.math.BigInteger;
+
+/**
+ * Precomputed multiples of one fixed point, for fast scalar multiplication by that point.
+ *
+ * The scalar is cut into 4 bit windows. For window i the table holds j * 16^i * base for j = 1..15,
+ * so s*base is just one table lookup and one sum per window, with no doublings.
+ *
+ * @author Andrew Josten
+ */
+public class PointTable {
+	//bits per window, and the number of nonzero digits per window
+	private static final int WINDOW = 4;
+	private static final int DIGITS = (1 << WINDOW) - 1;
+
+	/**
+	 * Large enough for every scalar used by EcurveFunctions (4 times a 512 bit number, or a value mod r)
+	 */
+	public static final int SCALAR_BITS = 524;
+
+	private final Ecurve base;
+	private final int windows;
+	//table[i*DIGITS + j-1] = j * 16^i * base
+	private final Ecurve[] table;
+
+	/**
+	 * Builds the table for scalars up to SCALAR_BITS bits
+	 */
+	public PointTable(Ecurve base) {
+		this(base, SCALAR_BITS);
+	}
+
+	/**
+	 * Builds the table for scalars up to maxBits bits.
+	 * The points are built in projective coords and normalized with a single modInverse.
+	 */
+	public PointTable(Ecurve base, int maxBits) {
+		this.base = base;
+		windows = (maxBits + WINDOW - 1) / WINDOW;
+
+		ProjectivePoint[] points = new ProjectivePoint[windows * DIGITS];
+		ProjectivePoint B = new ProjectivePoint(base);//16^i * base
+		for(int i = 0; i < windows; i++) {
+			points[i*DIGITS] = B;
+			for(int j = 1; j < DIGITS; j++) {
+				points[i*DIGITS + j] = points[i*DIGITS + j-1].sum(B);
+			}
+			B = points[i*DIGITS + DIGITS-1].sum(B);//16 * B
+		}
+		table = ProjectivePoint.batchNormalize(points);
+	}
+
+	/**
+	 * Rebuilds a table from points stored by points() (see Keyring). The points are not trusted:
+	 * each one must be on the curve and follow from base by the same sums the table is built with,
+	 *  table[0] = base, table[i*DIGITS + j] = table[i*DIGITS + j-1] + table[i*DIGITS],
+	 *  table[(i+1)*DIGITS] = table[i*DIGITS + DIGITS-1] + table[i*DIGITS],
+	 * checked with the addition law multiplied out, which costs about half of building the table.
+	 * @throws IllegalArgumentException if the points are not base's table
+	 */
+	PointTable(Ecurve base, Ecurve[] points) {
+		if(points.length == 0 || points.length % DIGITS != 0) {
+			throw new IllegalArgumentException("A table has a multiple of " + DIGITS + " points");
+		}
+		for(Ecurve P : points) {
+			if(!P.isOnCurve()) {
+				throw new IllegalArgumentException("A table point is not on the curve");
+			}
+		}
+		if(!points[0].getX().equals(base.getX()) || !points[0].getY().equals(base.getY())) {
+			throw new IllegalArgumentException("The table does not start at its base");
+		}
+		for(int k = 1; k < points.length; k++) {
+			//the previous point plus the first point of the window it belongs to
+			Ecurve B = points[(k-1) / DIGITS * DIGITS];
+			if(!isSum(points[k-1], B, points[k])) {
+				throw new IllegalArgumentException("Table point " + k + " is not the right multiple of the base");
+			}
+		}
+		this.base = base;
+		windows = points.length / DIGITS;
+		table = points;
+	}
+
+	/**
+	 * R = P + Q for curve points, without dividing:
+	 * x_R*(1 + d*x_P*x_Q*y_P*y_Q) = x_P*y_Q + y_P*x_Q and y_R*(1 - d*x_P*x_Q*y_P*y_Q) = y_P*y_Q - x_P*x_Q
+	 */
+	private static boolean isSum(Ecurve P, Ecurve Q, Ecurve R) {
+		BigInteger p = Ecurve.MersenneP;
+		BigInteger C = P.getX().multiply(Q.getX()).mod(p);
+		BigInteger D = P.getY().multiply(Q.getY()).mod(p);
+		BigInteger E = Ecurve.d.multiply(C).multiply(D).mod(p);
+		BigInteger cross = P.getX().add(P.getY()).multiply(Q.getX().add(Q.getY())).subtract(C).subtract(D).mod(p);
+		return R.getX().multiply(BigInteger.ONE.add(E)).mod(p).equals(cross)
+				&& R.getY().multiply(BigInteger.ONE.subtract(E)).mod(p).equals(D.subtract(C).mod(p));
+	}
+
+	public Ecurve getBase() {
+		return base;
+	}
+
+	/**
+	 * The precomputed multiples, in table order, for storing. Not a copy.
+	 */
+	Ecurve[] points() {
+		return table;
+	}
+
+	/**
+	 * Multiply the base point by scalar s
+	 * Scalars that are negative or too long for the table fall back to Ecurve.exponentiation
+	 */
+	public Ecurve exponentiation(BigInteger s) {
+		if(s.signum() < 0 || s.bitLength() > windows * WINDOW) {
+			return base.exponentiation(s);
+		}
+		return projectiveExponentiation(s).toAffine();
+	}
+
+	/**
+	 * Multiplies the base point by many scalars, normalizing all results with one modInverse
+	 * @return s[i]*base for each i
+	 */
+	public Ecurve[] exponentiation(BigInteger[] s) {
+		ProjectivePoint[] V = new ProjectivePoint[s.length];
+		for(int i = 0; i < s.length; i++) {
+			if(s[i].signum() < 0 || s[i].bitLength() > windows * WINDOW) {
+				V[i] = new ProjectivePoint(base.exponentiation(s[i]));
+			}
+			else {
+				V[i] = projectiveExponentiation(s[i]);
+			}
+		}
+		return ProjectivePoint.batchNormalize(V);
+	}
+
+	private ProjectivePoint projectiveExponentiation(BigInteger s) {
+		CryptoMetrics.scalarMultiplications.increment();
+		ScalarMultiplicationEvent event = ScalarMultiplicationEvent.start();
+		ProjectivePoint V = new ProjectivePoint();
+		for(int i = 0; i < windows; i++) {
+			int digit = 0;
+			for(int b = WINDOW-1; b >= 0; b--) {
+				digit = (digit << 1) | (s.testBit(i*WINDOW + b) ? 1 : 0);
+			}
+			if(digit != 0) {
+				V = V.sum(table[i*DIGITS + digit-1]);
+			}
+		}
+		event.finish("table", s.bitLength());
+		return V;
+	}
+}
@@ -0,0 +1,137 @@
+import java.math.BigInteger;
+
+/**
+ * A curve point in projective coordinates (X:Y:Z), standing for the affine point (X/Z, Y/Z).
+ * Sums and doublings need no modInverse here, so long chains of them only pay
+ * for a single inversion when converting back to an Ecurve.
+ *
+ * Formulas are the Edwards curve add-2007-bl and dbl-2007-bl from the
+ * Explicit-Formulas Database:
+ * https://hyperelliptic.org/EFD/g1p/auto-edwards-projective.html
+ *
+ * @author Andrew Josten
+ */
+public class ProjectivePoint {
+	private static final BigInteger P = Ecurve.MersenneP;
+	private static final BigInteger d = Ecurve.d;
+
+	//The projective coords of our point
+	private final BigInteger X;
+	private final BigInteger Y;
+	private final BigInteger Z;
+
+	/**
+	 * Neutral element constructor, (0:1:1)
+	 */
+	public ProjectivePoint() {
+		this(BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE);
+	}
+
+	/**
+	 * Lifts an affine point, (x,y) -> (x:y:1)
+	 */
+	public ProjectivePoint(Ecurve a) {
+		this(a.getX(), a.getY(), BigInteger.ONE);
+	}
+
+	public ProjectivePoint(BigInteger X, BigInteger Y, BigInteger Z) {
+		this.X = X;
+		this.Y = Y;
+		this.Z = Z;
+	}
+
+	/**
+	 * Sums two projective points
+	 * A = Z1*Z2, B = A^2, C = X1*X2, D = Y1*Y2, E = d*C*D, F = B-E, G = B+E
+	 * X3 = A*F*((X1+Y1)*(X2+Y2)-C-D), Y3 = A*G*(D-C), Z3 = F*G
+	 */
+	public ProjectivePoint sum(ProjectivePoint a) {
+		BigInteger A = Z.multiply(a.Z).mod(P);
+		return sum(A, A.multiply(A).mod(P), a.X, a.Y);
+	}
+
+	/**
+	 * Sums with an affine point (Z2 = 1), saving a multiplication
+	 */
+	public ProjectivePoint sum(Ecurve a) {
+		return sum(Z, Z.multiply(Z).mod(P), a.getX(), a.getY());
+	}
+
+	private ProjectivePoint sum(BigInteger A, BigInteger B, BigInteger X2, BigInteger Y2) {
+		BigInteger C = X.multiply(X2).mod(P);
+		BigInteger D = Y.multiply(Y2).mod(P);
+		BigInteger E = d.multiply(C).multiply(D).mod(P);
+		BigInteger F = B.subtract(E);
+		BigInteger G = B.add(E);
+
+		BigInteger cross = X.add(Y).multiply(X2.add(Y2)).subtract(C).subtract(D);
+		BigInteger newX = A.multiply(F).mod(P).multiply(cross).mod(P);
+		BigInteger newY = A.multiply(G).mod(P).multiply(D.subtract(C)).mod(P);
+		BigInteger newZ = F.multiply(G).mod(P);
+		return new ProjectivePoint(newX, newY, newZ);
+	}
+
+	/**
+	 * Doubles this point
+	 * B = (X1+Y1)^2, C = X1^2, D = Y1^2, E = C+D, H = Z1^2, J = E-2H
+	 * X3 = (B-E)*J, Y3 = E*(C-D), Z3 = E*J
+	 */
+	public ProjectivePoint twice() {
+		BigInteger B = X.add(Y).pow(2).mod(P);
+		BigInteger C = X.multiply(X).mod(P);
+		BigInteger D = Y.multiply(Y).mod(P);
+		BigInteger E = C.add(D);
+		BigInteger H = Z.multiply(Z).mod(P);
+		BigInteger J = E.subtract(H.shiftLeft(1));
+
+		BigInteger newX = B.subtract(E).multiply(J).mod(P);
+		BigInteger newY = E.multiply(C.subtract(D)).mod(P);
+		BigInteger newZ = E.multiply(J).mod(P);
+		return new ProjectivePoint(newX, newY, newZ);
+	}
+
+	/**
+	 * Converts back to an affine point, (X:Y:Z) -> (X/Z, Y/Z)
+	 * Costs one modInverse. Use batchNormalize when converting many points.
+	 */
+	public Ecurve toAffine() {
+		CryptoMetrics.inversions.increment();
+		BigInteger zInv = Z.modInverse(P);
+		return new Ecurve(X.multiply(zInv).mod(P), Y.multiply(zInv).mod(P));
+	}
+
+	/**
+	 * Converts many points to affine with Montgomery's trick:
+	 * one modInverse plus 3(n-1) multiplications for the n inverses of Z,
+	 * instead of n separate modInverse calls.
+	 *
+	 * @param points the projective points
+	 * @return the same points in affine form, in the same order
+	 */
+	public static Ecurve[] batchNormalize(ProjectivePoint[] points) {
+		int n = points.length;
+		Ecurve[] r = new Ecurve[n];
+		if(n == 0) {
+			return r;
+		}
+
+		//acc[i] = Z0*Z1*...*Zi
+		BigInteger[] acc = new BigInteger[n];
+		acc[0] = points[0].Z;
+		for(int i = 1; i < n; i++) {
+			acc[i] = acc[i-1].multiply(points[i].Z).mod(P);
+		}
+
+		//inv = 1/(Z0*...*Zi), peeled back one factor at a time
+		CryptoMetrics.inversions.increment();
+		BigInteger inv = acc[n-1].modInverse(P);
+		for(int i = n-1; i >= 0; i--) {
+			BigInteger zInv = i == 0 ? inv : inv.multiply(acc[i-1]).mod(P);
+			if(i != 0) {
+				inv = inv.multiply(points[i].Z).mod(P);
+			}
+			r[i] = new Ecurve(points[i].X.multiply(zInv).mod(P), points[i].Y.multiply(zInv).mod(P));
+		}
+		return r;
+	}
+}
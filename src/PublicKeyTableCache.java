@@ -0,0 +1,120 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded LRU cache of PointTables for recipient public keys, keyed by the compressed encoding of V.
+ *
+ * A table costs about three plain scalar multiplications to build, so a key only gets one
+ * the second time it is seen. After that, W = k*V for that recipient uses the table.
+ *
+ * @author Andrew Josten
+ */
+public class PublicKeyTableCache {
+	private int capacity;
+
+	//Built tables, least recently used first
+	private final LinkedHashMap<ByteBuffer, PointTable> tables;
+	//Keys seen once that do not have a table yet
+	private final LinkedHashMap<ByteBuffer, Boolean> seen;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * @param capacity the most tables kept at once (each is roughly half a megabyte)
+	 */
+	public PublicKeyTableCache(int capacity) {
+		this.capacity = capacity;
+		tables = new LinkedHashMap<ByteBuffer, PointTable>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, PointTable> eldest) {
+				if(size() > PublicKeyTableCache.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		seen = new LinkedHashMap<ByteBuffer, Boolean>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+				return size() > PublicKeyTableCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Computes k*V, using (and if worthwhile building) the cached table for V
+	 */
+	public Ecurve exponentiation(Ecurve V, BigInteger k) {
+		PointTable table = get(V);
+		if(table == null) {
+			return V.exponentiation(k);
+		}
+		return table.exponentiation(k);
+	}
+
+	/**
+	 * Gets the table for V
+	 * @return the table, or null on the first sighting of V
+	 */
+	public PointTable get(Ecurve V) {
+		ByteBuffer key = ByteBuffer.wrap(V.toCompressedBytes());
+		synchronized(this) {
+			PointTable table = tables.get(key);
+			if(table != null) {
+				hits++;
+				return table;
+			}
+			misses++;
+			if(seen.put(key, Boolean.TRUE) == null) {
+				return null;
+			}
+		}
+
+		//built outside the lock so other recipients are not held up
+		PointTable table = new PointTable(V);
+		synchronized(this) {
+			seen.remove(key);
+			tables.put(key, table);
+		}
+		return table;
+	}
+
+	/**
+	 * Adds a table built elsewhere (e.g. loaded from disk)
+	 */
+	public synchronized void put(PointTable table) {
+		tables.put(ByteBuffer.wrap(table.getBase().toCompressedBytes()), table);
+	}
+
+	/**
+	 * Changes the bound, evicting least recently used tables if needed
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		while(tables.size() > capacity) {
+			ByteBuffer eldest = tables.keySet().iterator().next();
+			tables.remove(eldest);
+			evictions++;
+		}
+	}
+
+	public synchronized void clear() {
+		tables.clear();
+		seen.clear();
+	}
+
+	public synchronized int size() {return tables.size();}
+	public synchronized int getCapacity() {return capacity;}
+	public synchronized long getHits() {return hits;}
+	public synchronized long getMisses() {return misses;}
+	public synchronized long getEvictions() {return evictions;}
+}
@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -49,6 +50,10 @@ public class SHA3 {
 	 * https://github.com/XKCP/XKCP/blob/master/Standalone/CompactFIPS202/Python/CompactFIPS202.py
 	 */
 	public byte[] Keccak(int rate, int capacity, byte[] X, int outputBitLen) {		
+		CryptoMetrics.bytesAbsorbed.add(X.length);
+		CryptoMetrics.bytesSqueezed.add(outputBitLen / 8);
+		SpongeEvent event = SpongeEvent.start();
+		int absorbed = X.length;
 		//Padding
 		if(X.length % (rate / 8) != 0) {
 	        int zSize = (rate / 8) - X.length % (rate / 8);//zSize:how much we're padding
@@ -124,6 +129,7 @@ public class SHA3 {
             }
         }
 
+        event.finish("keccak", absorbed, Z.length);
         return Z;
 	}
 
@@ -139,7 +145,8 @@ public class SHA3 {
 	 * @param v
 	 * @return
 	 */
-	private static long[] keccakPerms(long[] v) {
+	static long[] keccakPerms(long[] v) {
+		CryptoMetrics.permutations.increment();
 	    long[] state = v;
 	    for (int rounds = 0; rounds < KECCAKF_ROUNDS; rounds++) {	        
 	        //Theta
@@ -193,6 +200,52 @@ public class SHA3 {
 	
 	
 	
+	/**
+	 * keccakPerms in place over a state held in a direct (or heap) buffer, for OffHeapSponge.
+	 * Lanes are little-endian longs at bytes 0..199; bytes 200..239 are scratch for a row,
+	 * so nothing is allocated and the state never leaves the buffer between calls.
+	 * @param s at least 240 bytes, in ByteOrder.LITTLE_ENDIAN
+	 */
+	static void keccakPerms(ByteBuffer s) {
+		CryptoMetrics.permutations.increment();
+		final int B = 200;//scratch: C[0..4] for theta, the row being rewritten for chi
+		for (int rounds = 0; rounds < KECCAKF_ROUNDS; rounds++) {
+			//Theta
+			for (int i = 0; i < 5; i++) {
+				s.putLong(B + 8*i, s.getLong(8*i) ^ s.getLong(8*(i + 5)) ^ s.getLong(8*(i + 10))
+						^ s.getLong(8*(i + 15)) ^ s.getLong(8*(i + 20)));
+			}
+			for (int i = 0; i < 5; i++) {
+				long D = s.getLong(B + 8*((i + 4) % 5)) ^ ROTL64(s.getLong(B + 8*((i + 1) % 5)), 1);
+				for (int j = 0; j < 5; j++) {
+					s.putLong(8*(i + 5*j), s.getLong(8*(i + 5*j)) ^ D);
+				}
+			}
+
+			//rho pi
+			long t = s.getLong(8);
+			for (int i = 0; i < 24; i++) {
+				int count = keccakf_piln[i];
+				long row = s.getLong(8*count);
+				s.putLong(8*count, ROTL64(t, keccakf_rotc[i]));
+				t = row;
+			}
+
+			//chi
+			for (int j = 0; j < 5; j++) {
+				for (int i = 0; i < 5; i++) {
+					s.putLong(B + 8*i, s.getLong(8*(i + 5*j)));
+				}
+				for (int i = 0; i < 5; i++) {
+					s.putLong(8*(i + 5*j), s.getLong(B + 8*i) ^ (~s.getLong(B + 8*((i + 1) % 5)) & s.getLong(B + 8*((i + 2) % 5))));
+				}
+			}
+
+			//iota
+			s.putLong(0, s.getLong(0) ^ keccakf_rndc[rounds]);
+		}
+	}
+
 	/*THE FOLLOWING CODE IS NOT USED*/
 	
 	    /*
@@ -0,0 +1,55 @@
+import java.math.BigInteger;
+
+/**
+ * Arithmetic on scalars mod r, using the special form r = 2^519 - c with c about 256 bits:
+ * x = hi*2^519 + lo = lo + hi*c (mod r), so each step only needs a shift, a mask and a
+ * half size multiplication instead of a long division.
+ *
+ * @author Andrew Josten
+ */
+public final class ScalarField {
+	private ScalarField() {}
+
+	private static final BigInteger R = CurveParameters.R;
+	private static final BigInteger C = CurveParameters.R_OFFSET;
+	private static final int BITS = CurveParameters.R_BITS;
+	private static final BigInteger LOW_MASK = BigInteger.ONE.shiftLeft(BITS).subtract(BigInteger.ONE);
+
+	/**
+	 * x mod r
+	 */
+	public static BigInteger reduce(BigInteger x) {
+		if(x.signum() < 0) {
+			BigInteger y = reduce(x.negate());
+			return y.signum() == 0 ? y : R.subtract(y);
+		}
+		//each fold drops about 263 bits
+		while(x.bitLength() > BITS) {
+			x = x.and(LOW_MASK).add(x.shiftRight(BITS).multiply(C));
+		}
+		return x.compareTo(R) >= 0 ? x.subtract(R) : x;
+	}
+
+	/**
+	 * a*b mod r
+	 */
+	public static BigInteger multiply(BigInteger a, BigInteger b) {
+		return reduce(a.multiply(b));
+	}
+
+	/**
+	 * (a - b) mod r, for a and b already reduced or at least nonnegative
+	 */
+	public static BigInteger subtract(BigInteger a, BigInteger b) {
+		BigInteger x = reduce(a).subtract(reduce(b));
+		return x.signum() < 0 ? x.add(R) : x;
+	}
+
+	/**
+	 * Turns an unsigned hash or random value into a scalar: 4*h.
+	 * Same as new BigInteger(concat({0}, h)).multiply(4) without the copy and the multiplication.
+	 */
+	public static BigInteger times4(byte[] h) {
+		return new BigInteger(1, h).shiftLeft(2);
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * Flight Recorder event for one E521 scalar multiplication. Disabled by default.
+ *
+ * @author Andrew Josten
+ */
+public class ScalarMultiplicationEvent {
+	private static final FlightRecorder.Type TYPE = FlightRecorder.define("cryptoapp.ScalarMultiplication",
+			"Scalar Multiplication", "k*P by double-and-add, a fixed-base table, or Shamir's trick for s*P + t*Q",
+			FlightRecorder.field(String.class, "method", "Method", "double-and-add, table or shamir", false),
+			FlightRecorder.field(int.class, "scalarBits", "Scalar Bits", null, false));
+	private static final ScalarMultiplicationEvent NONE = new ScalarMultiplicationEvent(null);
+
+	private final Object event;
+
+	private ScalarMultiplicationEvent(Object event) {
+		this.event = event;
+	}
+
+	static ScalarMultiplicationEvent start() {
+		Object e = TYPE.begin();
+		return e == null ? NONE : new ScalarMultiplicationEvent(e);
+	}
+
+	void finish(String method, int scalarBits) {
+		if(event != null) {
+			TYPE.commit(event, method, scalarBits);
+		}
+	}
+}
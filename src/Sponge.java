@@ -0,0 +1,27 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The absorb/squeeze operations KMACStream needs, so its state can live on the heap
+ * (KeccakSponge) or in native memory (OffHeapSponge)
+ *
+ * @author Andrew Josten
+ */
+interface Sponge {
+	void absorb(byte[] b, int off, int len);
+
+	void absorb(byte[] b);
+
+	/**
+	 * Absorbs the remaining bytes of b, heap or direct, advancing its position to its limit
+	 */
+	void absorb(ByteBuffer b);
+
+	void squeeze(byte[] b, int off, int len);
+
+	/**
+	 * Squeezes dst.remaining() bytes into dst, advancing its position to its limit
+	 */
+	void squeeze(ByteBuffer dst);
+
+	Sponge copy();
+}
@@ -0,0 +1,32 @@
+/**
+ * Flight Recorder event for one run of the Keccak sponge: a whole SHA3.Keccak call,
+ * or one absorb or squeeze call on a KeccakSponge. Disabled by default.
+ *
+ * @author Andrew Josten
+ */
+public class SpongeEvent {
+	private static final FlightRecorder.Type TYPE = FlightRecorder.define("cryptoapp.Sponge", "Keccak Sponge",
+			"Bytes absorbed into or squeezed out of a Keccak sponge",
+			FlightRecorder.field(String.class, "phase", "Phase", "keccak, absorb or squeeze", false),
+			FlightRecorder.field(long.class, "absorbed", "Bytes Absorbed", null, true),
+			FlightRecorder.field(long.class, "squeezed", "Bytes Squeezed", null, true));
+	//handed out while nothing records sponge events, so they cost no allocation
+	private static final SpongeEvent NONE = new SpongeEvent(null);
+
+	private final Object event;
+
+	private SpongeEvent(Object event) {
+		this.event = event;
+	}
+
+	static SpongeEvent start() {
+		Object e = TYPE.begin();
+		return e == null ? NONE : new SpongeEvent(e);
+	}
+
+	void finish(String phase, long absorbed, long squeezed) {
+		if(event != null) {
+			TYPE.commit(event, phase, absorbed, squeezed);
+		}
+	}
+}
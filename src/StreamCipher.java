@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * The streamed c || t half shared by the symmetric and the elliptic curve cryptograms:
+ *  c <- keystream xor m
+ *  t <- tag over m (64 bytes)
+ * Both sides work a block at a time, so memory use does not depend on the length of m.
+ * seal/open handle c || t as one stream; encrypt/decrypt handle c alone, for formats that keep t apart (CryptoFile).
+ * The channel forms of seal/open work in direct buffers, xoring a lane at a time, and zero them when done.
+ *
+ * @author Andrew Josten
+ */
+public class StreamCipher {
+	//Bytes processed per step
+	static final int BLOCK = 8192;
+
+	/**
+	 * Writes c || t for everything left in in
+	 * @param keystream KMACStream(ke, "", *, "SKE" or "PKE")
+	 * @param tag KMACStream(ka, "", *, "SKA" or "PKA")
+	 * @return |m|
+	 */
+	static long seal(InputStream in, OutputStream out, KMACStream keystream, KMACStream tag) throws IOException {
+		long n = encrypt(in, out, keystream, tag);
+		out.write(tag.digest(512));
+		return n;
+	}
+
+	/**
+	 * Writes c for everything left in in, absorbing m into tag; t is left for the caller to squeeze
+	 * @return |m|
+	 */
+	static long encrypt(InputStream in, OutputStream out, KMACStream keystream, KMACStream tag) throws IOException {
+		byte[] buf = new byte[BLOCK];
+		byte[] key = new byte[BLOCK];
+		long total = 0;
+		int n;
+		while((n = in.read(buf)) != -1) {
+			total += n;
+			tag.update(buf, 0, n);
+			keystream.squeeze(key, 0, n);
+			for(int i = 0; i < n; i++) {
+				buf[i] ^= key[i];
+			}
+			out.write(buf, 0, n);
+		}
+		return total;
+	}
+
+	/**
+	 * Decrypts c (no t attached) to its end, absorbing m into tag; the caller compares t
+	 * @return |m|
+	 */
+	static long decrypt(InputStream in, OutputStream out, KMACStream keystream, KMACStream tag) throws IOException {
+		byte[] buf = new byte[BLOCK];
+		byte[] mask = new byte[BLOCK];
+		long total = 0;
+		int n;
+		while((n = in.read(buf)) != -1) {
+			total += n;
+			keystream.squeeze(mask, 0, n);
+			for(int i = 0; i < n; i++) {
+				buf[i] ^= mask[i];
+			}
+			tag.update(buf, 0, n);
+			out.write(buf, 0, n);
+		}
+		return total;
+	}
+
+	/**
+	 * Reads c || t to the end and writes m as it is decrypted, before t can be checked,
+	 * so the caller must throw the output away if this returns false.
+	 * @return true if t matched
+	 */
+	static boolean open(InputStream in, OutputStream out, KMACStream keystream, KMACStream tag) throws IOException {
+		//the last 64 bytes are t, so 64 bytes are always held back until the end is reached
+		byte[] buf = new byte[BLOCK + 64];
+		byte[] mask = new byte[BLOCK];
+		int held = 0;
+		int n;
+		while((n = readFully(in, buf, held, BLOCK)) > 0) {
+			int ready = held + n - 64;
+			if(ready > 0) {
+				keystream.squeeze(mask, 0, ready);
+				for(int i = 0; i < ready; i++) {
+					buf[i] ^= mask[i];
+				}
+				tag.update(buf, 0, ready);
+				out.write(buf, 0, ready);
+				System.arraycopy(buf, ready, buf, 0, 64);
+				held = 64;
+			}
+			else {
+				held += n;
+			}
+		}
+		if(held < 64) {
+			return false;
+		}
+		return Arrays.equals(tag.digest(512), Arrays.copyOf(buf, 64));
+	}
+
+	/**
+	 * seal over channels: m is read into a direct buffer, absorbed and xored in place, and written from it
+	 * @return |m|
+	 */
+	static long seal(ReadableByteChannel in, WritableByteChannel out, KMACStream keystream, KMACStream tag) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer mask = ByteBuffer.allocateDirect(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			long total = 0;
+			while(in.read(buf) != -1) {
+				((Buffer) buf).flip();
+				total += buf.remaining();
+				tag.update(buf.duplicate());
+				xor(buf, keystream, mask);
+				writeFully(out, buf);
+				((Buffer) buf).clear();
+			}
+			ByteBuffer t = ByteBuffer.allocate(64);
+			tag.squeeze(t);
+			((Buffer) t).flip();
+			writeFully(out, t);
+			return total;
+		}
+		finally {
+			zero(buf);
+			zero(mask);
+		}
+	}
+
+	/**
+	 * open over channels, holding the last 64 bytes back as t like open(InputStream, ...)
+	 * @return true if t matched
+	 */
+	static boolean open(ReadableByteChannel in, WritableByteChannel out, KMACStream keystream, KMACStream tag) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocateDirect(BLOCK + 64).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer mask = ByteBuffer.allocateDirect(BLOCK).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			boolean eof = false;
+			while(!eof) {
+				eof = in.read(buf) == -1;
+				int ready = buf.position() - 64;
+				if(ready > 0 && (eof || !buf.hasRemaining())) {
+					ByteBuffer m = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+					((Buffer) m).position(0).limit(ready);
+					xor(m, keystream, mask);
+					((Buffer) m).position(0);
+					tag.update(m.duplicate());
+					writeFully(out, m);
+					//move the held back 64 bytes to the front
+					((Buffer) buf).flip().position(ready);
+					buf.compact();
+				}
+			}
+			if(buf.position() < 64) {
+				return false;
+			}
+			byte[] t = new byte[64];
+			((Buffer) buf).flip();
+			((Buffer) buf).position(buf.limit() - 64);
+			buf.get(t);
+			ByteBuffer expected = ByteBuffer.allocate(64);
+			tag.squeeze(expected);
+			return Arrays.equals(expected.array(), t);
+		}
+		finally {
+			zero(buf);
+			zero(mask);
+		}
+	}
+
+	//b ^= the next b.remaining() keystream bytes, eight at a time; b's position is left where it was
+	private static void xor(ByteBuffer b, KMACStream keystream, ByteBuffer mask) {
+		int start = b.position();
+		int n = b.remaining();
+		((Buffer) mask).clear().limit(n);
+		keystream.squeeze(mask);
+		int i = 0;
+		for(; i + 8 <= n; i += 8) {
+			b.putLong(start + i, b.getLong(start + i) ^ mask.getLong(i));
+		}
+		for(; i < n; i++) {
+			b.put(start + i, (byte) (b.get(start + i) ^ mask.get(i)));
+		}
+	}
+
+	private static void writeFully(WritableByteChannel out, ByteBuffer b) throws IOException {
+		while(b.hasRemaining()) {
+			out.write(b);
+		}
+	}
+
+	private static void zero(ByteBuffer b) {
+		ByteBuffer all = b.duplicate();
+		((Buffer) all).clear();
+		while(all.hasRemaining()) {
+			all.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Absorbs everything left in in, BLOCK bytes at a time (hashing, tags and prehashes)
+	 * @return h
+	 */
+	static KMACStream absorb(KMACStream h, InputStream in) throws IOException {
+		byte[] buf = new byte[BLOCK];
+		int n;
+		while((n = in.read(buf)) != -1) {
+			h.update(buf, 0, n);
+		}
+		return h;
+	}
+
+	/**
+	 * Reads until len bytes are read or the stream ends
+	 * @return the number of bytes read
+	 */
+	static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		int total = 0;
+		while(total < len) {
+			int n = in.read(b, off + total, len - total);
+			if(n == -1) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Hashes every file under a directory, one task per file, and lists the results as a sorted manifest.
+ * Each file gets KmacFunctions.cryptographicHash of its contents, computed while streaming.
+ * Many files are read and hashed at once, so disk reads of one file overlap hashing of others.
+ *
+ * The manifest can end with a Merkle root over its entries:
+ *  leaf = KMACXOF256(path, h, 512, "ML")
+ *  node = KMACXOF256("", left || right, 512, "MN"), an unpaired node moves up unchanged
+ *
+ * @author Andrew Josten
+ */
+public class TreeHasher {
+	/**
+	 * One manifest line: the path relative to the root (with / separators) and its hash
+	 */
+	public static final class Entry {
+		public final String path;
+		public final byte[] hash;
+
+		Entry(String path, byte[] hash) {
+			this.path = path;
+			this.hash = hash;
+		}
+	}
+
+	private final ExecutorService executor;
+
+	/**
+	 * A virtual thread per file on Java 21 or later, otherwise two threads per core
+	 * so some threads hash while others wait on the disk
+	 */
+	public TreeHasher() {
+		ExecutorService e;
+		try {
+			e = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException ex) {
+			e = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+		}
+		executor = e;
+	}
+
+	public TreeHasher(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Hashes every regular file under root
+	 * @return the entries sorted by path
+	 */
+	public List<Entry> hash(Path root) throws IOException {
+		List<Path> files;
+		try(Stream<Path> walk = Files.walk(root)) {
+			files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+		}
+
+		List<CompletableFuture<Entry>> tasks = new ArrayList<CompletableFuture<Entry>>();
+		for(Path file : files) {
+			String name = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+			tasks.add(CompletableFuture.supplyAsync(() -> new Entry(name, hashFile(file)), executor));
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		try {
+			for(CompletableFuture<Entry> t : tasks) {
+				entries.add(t.get());
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch(ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		Collections.sort(entries, (a, b) -> a.path.compareTo(b.path));
+		return entries;
+	}
+
+	/**
+	 * h<-KMACXOF256("", m, 512, "D") over the file's bytes, streamed
+	 */
+	public static byte[] hashFile(Path file) {
+		try(InputStream in = Files.newInputStream(file)) {
+			return StreamCipher.absorb(new KMACStream(new byte[] {}, "D"), in).digest(512);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(file.toString(), e);
+		}
+	}
+
+	/**
+	 * Merkle root over the entries, in their order
+	 */
+	public static byte[] merkleRoot(List<Entry> entries) {
+		KMAC kmac = new KMAC();
+		List<byte[]> level = new ArrayList<byte[]>();
+		for(Entry e : entries) {
+			level.add(kmac.KMACXOF256(e.path.getBytes(StandardCharsets.UTF_8), e.hash, 512, "ML"));
+		}
+		if(level.isEmpty()) {
+			return kmac.KMACXOF256(new byte[] {}, new byte[] {}, 512, "MN");
+		}
+		while(level.size() > 1) {
+			List<byte[]> up = new ArrayList<byte[]>();
+			for(int i = 0; i < level.size(); i += 2) {
+				if(i + 1 < level.size()) {
+					up.add(kmac.KMACXOF256(new byte[] {}, KMAC.concat(level.get(i), level.get(i + 1)), 512, "MN"));
+				}
+				else {
+					up.add(level.get(i));
+				}
+			}
+			level = up;
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * The manifest text: "hash  path" per line, sorted by path,
+	 * then "# merkle root: hash" if asked for
+	 */
+	public static String manifest(List<Entry> entries, boolean withRoot) {
+		return manifest(entries, withRoot ? merkleRoot(entries) : null);
+	}
+
+	/**
+	 * The manifest text with a root the caller already has from merkleRoot(entries), or null for none
+	 */
+	public static String manifest(List<Entry> entries, byte[] root) {
+		StringBuilder sb = new StringBuilder();
+		for(Entry e : entries) {
+			sb.append(toHex(e.hash)).append("  ").append(e.path).append('\n');
+		}
+		if(root != null) {
+			sb.append("# merkle root: ").append(toHex(root)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public static String toHex(byte[] b) {
+		StringBuilder sb = new StringBuilder(b.length * 2);
+		for(byte x : b) {
+			sb.append(Character.forDigit((x >> 4) & 15, 16)).append(Character.forDigit(x & 15, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * CryptoFile.validate and readIndex on well formed containers and on ones whose INDEX,
+ * END frame or frame order was tampered with
+ *
+ * @author Andrew Josten
+ */
+public class CryptoFileTest {
+	private static final byte[] PW = "pw".getBytes();
+
+	@Test
+	public void wellFormed() throws Exception {
+		byte[] f = indexed(200000);
+		assertNull(CryptoFile.validate(new ByteArrayInputStream(f)));
+		long[] index = CryptoFile.readIndex(write(f));
+		assertEquals(4, index.length);
+		for(long offset : index) {
+			assertEquals(CryptoFile.DATA, f[(int) offset]);
+		}
+		EcurveFunctions ec = new EcurveFunctions();
+		EcPrivateKey key = ec.deriveKey(PW);
+		assertNull(CryptoFile.validate(new ByteArrayInputStream(CryptoFile.keyPair(key.getPublicKey(), key.getS()))));
+		assertNull(CryptoFile.validate(new ByteArrayInputStream(CryptoFile.signature(ec.sigGenerator(key, new byte[10]), false))));
+		assertNull(CryptoFile.validate(new ByteArrayInputStream(CryptoFile.multiRecipient(
+				ec.encrypt(new byte[100000], new EcPublicKey[] {key.getPublicKey()})))));
+	}
+
+	@Test
+	public void indexEntryMoved() throws Exception {
+		byte[] f = indexed(200000);
+		int entry = (int) indexOffset(f) + 5 + 4 + 8;
+		f[entry + 7]++;
+		assertTrue(CryptoFile.validate(new ByteArrayInputStream(f)).startsWith("INDEX entry 1"));
+	}
+
+	@Test
+	public void endNotAtIndex() throws Exception {
+		byte[] f = indexed(200000);
+		ByteBuffer.wrap(f).putLong(f.length - 8, CryptoFile.HEADER_LENGTH);
+		assertTrue(CryptoFile.validate(new ByteArrayInputStream(f)).startsWith("END frame points at 8"));
+		assertThrows(IOException.class, () -> CryptoFile.readIndex(write(f)));
+	}
+
+	@Test
+	public void framesOutOfOrder() throws Exception {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		CryptoFile.Writer w = new CryptoFile.Writer(b, CryptoFile.Algorithm.SYMMETRIC, false);
+		w.frame(CryptoFile.TAG, new byte[64]);
+		w.frame(CryptoFile.NONCE, new byte[64]);
+		w.finish();
+		assertTrue(CryptoFile.validate(new ByteArrayInputStream(b.toByteArray())).startsWith("frame type 6 out of place"));
+
+		b.reset();
+		w = new CryptoFile.Writer(b, CryptoFile.Algorithm.KEY_PAIR, false);
+		w.frame(CryptoFile.PUBLIC_KEY, new byte[66]);
+		w.finish();
+		assertTrue(CryptoFile.validate(new ByteArrayInputStream(b.toByteArray())).startsWith("missing frame type 4"));
+	}
+
+	/**
+	 * A count that does not fit the INDEX frame is refused before anything is allocated for it
+	 */
+	@Test
+	public void indexCountBounded() throws Exception {
+		byte[] f = indexed(200000);
+		ByteBuffer.wrap(f).putInt((int) indexOffset(f) + 5, Integer.MAX_VALUE);
+		IOException e = assertThrows(IOException.class, () -> CryptoFile.readIndex(write(f)));
+		assertEquals("Bad INDEX frame", e.getMessage());
+		assertEquals("Bad INDEX frame", CryptoFile.validate(new ByteArrayInputStream(f)));
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		byte[] m = new byte[70000];
+		m[69999] = 1;
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		CryptoFile.encrypt(new KmacFunctions(), new ByteArrayInputStream(m), o, PW, true);
+		ByteArrayOutputStream d = new ByteArrayOutputStream();
+		assertTrue(CryptoFile.decrypt(new KmacFunctions(), new ByteArrayInputStream(o.toByteArray()), d, PW));
+		assertArrayEquals(m, d.toByteArray());
+	}
+
+	private static byte[] indexed(int length) throws IOException {
+		ByteArrayOutputStream o = new ByteArrayOutputStream();
+		CryptoFile.encrypt(new KmacFunctions(), new ByteArrayInputStream(new byte[length]), o, PW, true);
+		return o.toByteArray();
+	}
+
+	//from the END frame's payload, the last 8 bytes
+	private static long indexOffset(byte[] f) {
+		return ByteBuffer.wrap(f).getLong(f.length - 8);
+	}
+
+	private static Path write(byte[] f) throws IOException {
+		Path p = Files.createTempFile("container", ".kc");
+		p.toFile().deleteOnExit();
+		Files.write(p, f);
+		return p;
+	}
+}
@@ -0,0 +1,49 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * KMACStream against KMAC.KMACXOF256 for every key length around the block boundaries of the key block,
+ * on and off heap, and the streamed symmetric cipher against the byte[] one
+ *
+ * @author Andrew Josten
+ */
+public class KMACStreamTest {
+	@Test
+	public void sameBytesAsKmac() {
+		KMAC kmac = new KMAC();
+		byte[] X = new byte[300];
+		for(int i = 0; i < X.length; i++) {
+			X[i] = (byte) (3 * i);
+		}
+		for(int k = 0; k <= 280; k++) {
+			byte[] K = new byte[k];
+			for(int i = 0; i < k; i++) {
+				K[i] = (byte) i;
+			}
+			byte[] expected = kmac.KMACXOF256(K, X, 1024, "S");
+			for(boolean offHeap : new boolean[] {false, true}) {
+				try(KMACStream s = new KMACStream(K, "S", 0, offHeap)) {
+					s.update(X);
+					assertArrayEquals(expected, s.digest(1024), "key of " + k + " bytes, off heap " + offHeap);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void streamedCipherOpensByteArrayCryptogram() throws Exception {
+		KmacFunctions kmac = new KmacFunctions();
+		byte[] m = new byte[100000];
+		m[5] = 9;
+		byte[] gram = kmac.encrypt(m, "pw".getBytes());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertTrue(kmac.decrypt(Channels.newChannel(new ByteArrayInputStream(gram)), Channels.newChannel(out), "pw".getBytes()));
+		assertArrayEquals(m, out.toByteArray());
+	}
+}
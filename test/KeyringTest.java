@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Keyring round trips, and stored tables that were tampered with: a table point replaced by another
+ * curve point (in the first window, at its end, across the window boundary and at the end of the table),
+ * or with one coordinate bit flipped, must be refused when the key is loaded
+ *
+ * @author Andrew Josten
+ */
+public class KeyringTest {
+	private static final int POINT_LENGTH = 2 * Ecurve.COMPRESSED_LENGTH;
+	//header, then one index entry: fingerprint || V || table offset
+	private static final int TABLE_OFFSET = 16 + 32 + POINT_LENGTH;
+
+	private final EcPublicKey key = new EcurveFunctions().deriveKey("ring".getBytes()).getPublicKey();
+
+	@Test
+	public void roundTrip() throws Exception {
+		Path ring = ring();
+		try(Keyring r = Keyring.open(ring)) {
+			assertEquals(1, r.size());
+			EcPublicKey k = r.find(TreeHasher.toHex(key.fingerprint()).substring(0, 8));
+			assertNotNull(k.getTable());
+			assertArrayEquals(key.getV().toBytes(), k.getV().toBytes());
+			//loaded once per open ring
+			assertTrue(k == r.get(key.fingerprint()));
+		}
+	}
+
+	@Test
+	public void references() throws Exception {
+		Path ring = ring();
+		String prefix = TreeHasher.toHex(key.fingerprint()).substring(0, 8);
+		assertTrue(Keyring.isReference(ring + "#" + prefix));
+		assertFalse(Keyring.isReference(ring + "#" + prefix + ".pub"));
+		assertFalse(Keyring.isReference(ring + ".missing#" + prefix));
+		assertFalse(Keyring.isReference(ring + "#"));
+		//a file whose own name looks like a reference is read as that file
+		Path named = Paths.get(ring + "#" + prefix);
+		Files.write(named, new byte[1]);
+		named.toFile().deleteOnExit();
+		assertFalse(Keyring.isReference(named.toString()));
+	}
+
+	@Test
+	public void replacedPoints() throws Exception {
+		byte[] clean = Files.readAllBytes(ring());
+		int table = (int) ByteBuffer.wrap(clean).getLong(TABLE_OFFSET);
+		int points = ByteBuffer.wrap(clean).getInt(table);
+		byte[] other = EcurveFunctions.G.exponentiation(BigInteger.valueOf(77)).toBytes();
+		for(int entry : new int[] {1, 5, 14, 15, 16, points - 1}) {
+			byte[] b = clean.clone();
+			System.arraycopy(other, 0, b, table + 4 + entry * POINT_LENGTH, POINT_LENGTH);
+			IOException e = assertThrows(IOException.class, () -> load(b), "table point " + entry);
+			assertTrue(e.getMessage().endsWith("Table point " + entry + " is not the right multiple of the base"), e.getMessage());
+		}
+	}
+
+	@Test
+	public void flippedCoordinateBit() throws Exception {
+		byte[] b = Files.readAllBytes(ring());
+		int table = (int) ByteBuffer.wrap(b).getLong(TABLE_OFFSET);
+		b[table + 4 + 3 * POINT_LENGTH + 10] ^= 1;
+		IOException e = assertThrows(IOException.class, () -> load(b));
+		assertTrue(e.getMessage().endsWith("A table point is not on the curve"), e.getMessage());
+	}
+
+	private Path ring() throws IOException {
+		Path p = Files.createTempFile("ring", ".krg");
+		p.toFile().deleteOnExit();
+		Keyring.write(p, Collections.singletonList(key), true);
+		return p;
+	}
+
+	private static void load(byte[] file) throws IOException {
+		Path p = Files.createTempFile("ring", ".krg");
+		p.toFile().deleteOnExit();
+		Files.write(p, file);
+		try(Keyring r = Keyring.open(p)) {
+			r.keys();
+		}
+	}
+}
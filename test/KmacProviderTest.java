@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Known answers for the KmacProvider Macs: the NIST SP 800-185 samples 4 to 6, and lengths of X
+ * that leave 0, 1, 136 or 137 bytes of the last block after right_encode(L), where the padding differs
+ * from the app's own KMAC.KMACXOF256.
+ *
+ * @author Andrew Josten
+ */
+public class KmacProviderTest {
+	private static final byte[] K = range(0x40, 32);
+	private static final String TAGGED = "My Tagged Application";
+
+	@Test
+	public void kmac256Samples() throws Exception {
+		assertArrayEquals(hex("20c570c31346f703c9ac36c61c03cb64c3970d0cfc787e9b79599d273a68d2f7f69d4cc3de9d104a351689f27cf6f5951f0103f33f4f24871024d9c27773a8dd"),
+				mac("KMAC256", range(0, 4), TAGGED));
+		assertArrayEquals(hex("75358cf39e41494e949707927cee0af20a3ff553904c86b08f21cc414bcfd691589d27cf5e15369cbbff8b9a4c2eb17800855d0235ff635da82533ec6b759b69"),
+				mac("KMAC256", range(0, 200), ""));
+		assertArrayEquals(hex("b58618f71f92e1d56c1b8c55ddd7cd188b97b4ca4d99831eb2699a837da2e4d970fbacfde50033aea585f1a2708510c32d07880801bd182898fe476876fc8965"),
+				mac("KMAC256", range(0, 200), TAGGED));
+	}
+
+	@Test
+	public void kmacXof256Samples() throws Exception {
+		assertArrayEquals(hex("1755133f1534752aad0748f2c706fb5c784512cab835cd15676b16c0c6647fa96faa7af634a0bf8ff6df39374fa00fad9a39e322a7c92065a64eb1fb0801eb2b"),
+				mac("KMACXOF256", range(0, 4), TAGGED));
+		assertArrayEquals(hex("ff7b171f1e8a2b24683eed37830ee797538ba8dc563f6da1e667391a75edc02ca633079f81ce12a25f45615ec89972031d18337331d24ceb8f8ca8e6a19fd98b"),
+				mac("KMACXOF256", range(0, 200), ""));
+		assertArrayEquals(hex("d5be731c954ed7732846bb59dbe3a8e30f83e77a4bff4459f2f1c2b4ecebb8ce67ba01c62e8ab8578d2d499bd1bb276768781190020a306a97de281dcc30305d"),
+				mac("KMACXOF256", range(0, 200), TAGGED));
+	}
+
+	/**
+	 * right_encode(512) is 3 bytes, so X of 132 or 268 bytes leaves one byte for the suffix and pad (0x84),
+	 * and 133 or 269 bytes fill the block, so the pad is a block of its own
+	 */
+	@Test
+	public void kmac256BlockBoundaries() throws Exception {
+		assertArrayEquals(hex("10b07e27533954705aee9771c4325a3028d97e9c5ff731d30ebc94c7249bad3f8203f4d5ff61e4a762a4a4ceadc65234f2a8cca7650977899f34e296b3cfa268"),
+				mac("KMAC256", range(0, 132), ""));
+		assertArrayEquals(hex("794b8862d89489e062b24fe5faf6c5dbc66e2e8a93682ffe1edb218ce75f204104a7a9635184c8cf98ca768150eb1939fa1a78038c3e27582b788c023770c5ab"),
+				mac("KMAC256", range(0, 133), ""));
+		assertArrayEquals(hex("d1ad039f9381ab8c18cec09050609a03742baa31130af7805585f6946f342f2990f316931650e14614fbd68af59ab25894fc95d055cfe740405a65dc779b3f69"),
+				mac("KMAC256", range(0, 268), ""));
+		assertArrayEquals(hex("5ab8a37d528ec21ce4687759dbbb613a17cad78a2821399a15d0e089040c291dce9c3583942c164cb276a355b04609dc0d9eb3aff1c7a395eabe8b13e8f87d96"),
+				mac("KMAC256", range(0, 269), ""));
+	}
+
+	/**
+	 * right_encode(0) is 2 bytes, so here 133 and 269 leave one byte and 132 and 268 leave two
+	 */
+	@Test
+	public void kmacXof256BlockBoundaries() throws Exception {
+		assertArrayEquals(hex("d3c9dd3b92824ac3d16c5ae9a19893d96ab36dfd389606b3a40998c749d09834ad6f16d9a2cf63866fede4e007b630b3294c91f858b3883533b95b113c4d5c92"),
+				mac("KMACXOF256", range(0, 132), ""));
+		assertArrayEquals(hex("5b79ee452d9f7649626cad4608b118e6a4125cba53c8201f50b30b8c7009250d3ec431ca695f78d05f592f5f0a0b139164d06eb3fd2b2a5f77e5400b4d6d77ec"),
+				mac("KMACXOF256", range(0, 133), ""));
+		assertArrayEquals(hex("c9c6ac3a39ca044e5894df7a9f58cf41a4fafcf32f8e25afccfb46c502ce893ceaa7b810083e9edaa67e5b7a0307082919733d99db28b679b4c4eba16b9813d1"),
+				mac("KMACXOF256", range(0, 268), ""));
+		assertArrayEquals(hex("4530c03f193578390021388590f425d7dd6e9a96bb27a207da2fe79d0e6267e0779930fd32adf16d438bc820db5a18eb379595bb24d05a5cd18d8f4e379146ca"),
+				mac("KMACXOF256", range(0, 269), ""));
+	}
+
+	/**
+	 * The same tag whether X comes in one piece, byte by byte or from a direct buffer
+	 */
+	@Test
+	public void piecewiseUpdates() throws Exception {
+		byte[] X = range(0, 269);
+		byte[] whole = mac("KMAC256", X, "");
+		Mac m = Mac.getInstance("KMAC256", new KmacProvider());
+		m.init(new SecretKeySpec(K, "KMAC256"));
+		for(byte b : X) {
+			m.update(b);
+		}
+		assertArrayEquals(whole, m.doFinal());
+		ByteBuffer direct = ByteBuffer.allocateDirect(X.length);
+		direct.put(X).flip();
+		m.update(direct);
+		assertArrayEquals(whole, m.doFinal());
+	}
+
+	/**
+	 * The app's cryptograms keep their padding, which only differs from the Mac where the block fills up
+	 */
+	@Test
+	public void cryptogramPaddingUnchanged() throws Exception {
+		assertArrayEquals(new KMAC().KMACXOF256(K, range(0, 200), 512, ""), mac("KMACXOF256", range(0, 200), ""));
+		assertFalse(Arrays.equals(new KMAC().KMACXOF256(K, range(0, 133), 512, ""), mac("KMACXOF256", range(0, 133), "")));
+	}
+
+	private static byte[] mac(String algorithm, byte[] X, String S) throws Exception {
+		Mac m = Mac.getInstance(algorithm, new KmacProvider());
+		m.init(new SecretKeySpec(K, algorithm), new KmacProvider.Customization(S));
+		return m.doFinal(X);
+	}
+
+	//from, from+1, ... mod 256
+	private static byte[] range(int from, int n) {
+		byte[] b = new byte[n];
+		for(int i = 0; i < n; i++) {
+			b[i] = (byte) (from + i);
+		}
+		return b;
+	}
+
+	private static byte[] hex(String s) {
+		byte[] b = new BigInteger("01" + s, 16).toByteArray();
+		return Arrays.copyOfRange(b, 1, b.length);
+	}
+}
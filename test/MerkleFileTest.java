@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * MerkleFile updates against a full rebuild, the kmac.merkle ranges file, and tree files
+ * whose header does not match their size
+ *
+ * @author Andrew Josten
+ */
+public class MerkleFileTest {
+	private static final int CHUNK = 4096;
+
+	@Test
+	public void updateMatchesBuild() throws Exception {
+		Path file = data(100000);
+		MerkleFile tree = MerkleFile.build(file, CHUNK);
+		overwrite(file, 50000, 10);
+		tree.markDirty(50000, 10);
+		assertArrayEquals(MerkleFile.build(file, CHUNK).root(), tree.update(file));
+		assertEquals(1, tree.getLeavesHashed());
+	}
+
+	@Test
+	public void batchRanges() throws Exception {
+		Path file = data(3 << 20);
+		Path treeFile = MerkleFile.treeFileFor(file);
+		treeFile.toFile().deleteOnExit();
+		Path root = temp(".root");
+		assertEquals(0, BatchRunner.run(new String[] {"kmac", "merkle", file.toString(), root.toString()}));
+		assertTrue(MerkleFile.isTreeFile(treeFile));
+
+		overwrite(file, MerkleFile.DEFAULT_CHUNK + 5, 100);
+		Path ranges = temp(".ranges");
+		Files.write(ranges, ("# written since the last run\n" + (MerkleFile.DEFAULT_CHUNK + 5) + " 100\n").getBytes());
+		assertEquals(0, BatchRunner.run(new String[] {"kmac", "merkle", file.toString(), root.toString(), ranges.toString()}));
+		assertArrayEquals(MerkleFile.build(file).root(), Files.readAllBytes(root));
+
+		//only the listed ranges are read, so a write left out of the list is missed until a run without one
+		byte[] before = Files.readAllBytes(root);
+		overwrite(file, 10, 1);
+		Files.write(ranges, new byte[0]);
+		assertEquals(0, BatchRunner.run(new String[] {"kmac", "merkle", file.toString(), root.toString(), ranges.toString()}));
+		assertArrayEquals(before, Files.readAllBytes(root));
+		assertEquals(0, BatchRunner.run(new String[] {"kmac", "merkle", file.toString(), root.toString()}));
+		assertArrayEquals(MerkleFile.build(file).root(), Files.readAllBytes(root));
+	}
+
+	@Test
+	public void loadChecksSize() throws Exception {
+		Path file = data(100000);
+		Path treeFile = temp(".mtree");
+		MerkleFile.build(file, CHUNK).save(treeFile);
+		assertEquals(25, MerkleFile.load(treeFile).getLeafCount());
+
+		byte[] b = Files.readAllBytes(treeFile);
+		Files.write(treeFile, Arrays.copyOf(b, b.length - 1));
+		assertThrows(IOException.class, () -> MerkleFile.load(treeFile));
+
+		//a header claiming a huge file is refused before its levels are allocated
+		ByteBuffer.wrap(b).putLong(12, 1L << 40);
+		Files.write(treeFile, b);
+		assertTrue(assertThrows(IOException.class, () -> MerkleFile.load(treeFile)).getMessage().startsWith("Tree file is"));
+	}
+
+	private static Path data(int length) throws IOException {
+		byte[] b = new byte[length];
+		new Random(7).nextBytes(b);
+		Path p = temp(".bin");
+		Files.write(p, b);
+		return p;
+	}
+
+	private static void overwrite(Path file, long offset, int length) throws IOException {
+		try(RandomAccessFile f = new RandomAccessFile(file.toFile(), "rw")) {
+			f.seek(offset);
+			f.write(new byte[length]);
+		}
+	}
+
+	private static Path temp(String suffix) throws IOException {
+		Path p = Files.createTempFile("merkle", suffix);
+		p.toFile().deleteOnExit();
+		return p;
+	}
+}